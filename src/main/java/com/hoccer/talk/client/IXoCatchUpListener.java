@@ -0,0 +1,19 @@
+package com.hoccer.talk.client;
+
+import com.hoccer.talk.client.model.TalkClientContact;
+
+/**
+ * Listener for catch-up on a large backlog of incoming messages
+ *
+ * Between start and finish, message and unseen listeners are not
+ * notified about individual incoming messages.
+ */
+public interface IXoCatchUpListener {
+
+    public void onCatchUpStarted();
+
+    public void onMessagesAdded(TalkClientContact conversation, int count);
+
+    public void onCatchUpFinished();
+
+}
@@ -0,0 +1,21 @@
+package com.hoccer.talk.client;
+
+public interface IXoSyncListener {
+
+    /**
+     * Called when synchronization enters a new phase
+     *
+     * Messaging is possible from XoClient.SYNC_PHASE_CONTACTS on,
+     * the remaining phases are performed in the background.
+     */
+    public void onSyncPhaseChanged(XoClient client, int phase);
+
+    /**
+     * Called while a phase makes progress
+     *
+     * @param done number of items processed in this phase
+     * @param total number of items in this phase
+     */
+    public void onSyncProgress(XoClient client, int phase, int done, int total);
+
+}
@@ -0,0 +1,24 @@
+package com.hoccer.talk.client;
+
+import com.hoccer.talk.client.model.TalkClientContact;
+import com.hoccer.talk.client.model.TalkClientMessage;
+
+import java.util.Map;
+
+/**
+ * Listener for changes of the set of unseen messages
+ *
+ * Unlike IXoUnseenListener this only reports the message that
+ * changed together with the resulting counts. Messages added
+ * during a catch-up are not reported one by one, the counts
+ * of their conversations are reported once it has finished.
+ */
+public interface IXoUnseenDeltaListener {
+
+    public void onUnseenMessageAdded(TalkClientMessage message, int conversationUnseen, int totalUnseen, boolean notify);
+
+    public void onUnseenMessageCleared(TalkClientMessage message, int conversationUnseen, int totalUnseen);
+
+    public void onUnseenMessagesResync(Map<TalkClientContact, Integer> conversationUnseen, int totalUnseen, boolean notify);
+
+}
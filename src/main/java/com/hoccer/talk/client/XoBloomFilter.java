@@ -0,0 +1,81 @@
+package com.hoccer.talk.client;
+
+import java.util.BitSet;
+
+/**
+ * Compact probabilistic set of strings
+ *
+ * Answers whether a string might have been added. There are no
+ * false negatives, false positives occur with a rate that depends
+ * on how many strings were added relative to the capacity.
+ */
+public class XoBloomFilter {
+
+    /** Bits per expected element, about 1% false positives with 7 hashes */
+    private static final int BITS_PER_ELEMENT = 10;
+
+    private static final int HASH_COUNT = 7;
+
+    BitSet mBits;
+
+    int mSize;
+
+    int mCapacity;
+
+    int mCount = 0;
+
+    /**
+     * @param capacity number of strings expected to be added
+     */
+    public XoBloomFilter(int capacity) {
+        mCapacity = Math.max(capacity, 1);
+        mSize = mCapacity * BITS_PER_ELEMENT;
+        mBits = new BitSet(mSize);
+    }
+
+    public synchronized void add(String value) {
+        int h1 = value.hashCode();
+        int h2 = secondHash(value);
+        for(int i = 0; i < HASH_COUNT; i++) {
+            mBits.set(index(h1 + i * h2));
+        }
+        mCount++;
+    }
+
+    /**
+     * @return false if the value has certainly not been added
+     */
+    public synchronized boolean mightContain(String value) {
+        int h1 = value.hashCode();
+        int h2 = secondHash(value);
+        for(int i = 0; i < HASH_COUNT; i++) {
+            if(!mBits.get(index(h1 + i * h2))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return true if more strings were added than the filter was sized for
+     */
+    public synchronized boolean isOverloaded() {
+        return mCount > mCapacity;
+    }
+
+    private int index(int hash) {
+        return (hash & Integer.MAX_VALUE) % mSize;
+    }
+
+    /** FNV-1a, independent of String.hashCode() */
+    private static int secondHash(String value) {
+        int hash = 0x811c9dc5;
+        for(int i = 0; i < value.length(); i++) {
+            hash ^= value.charAt(i);
+            hash *= 0x01000193;
+        }
+        // an odd step visits different bits for every hash function
+        return hash | 1;
+    }
+
+}
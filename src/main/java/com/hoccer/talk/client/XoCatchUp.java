@@ -0,0 +1,111 @@
+package com.hoccer.talk.client;
+
+import com.hoccer.talk.client.model.TalkClientContact;
+import org.apache.log4j.Logger;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * State of a catch-up on a large backlog of incoming messages
+ *
+ * While catching up, incoming messages are committed in batches of
+ * CATCHUP_BATCH_SIZE per transaction and listeners are not told
+ * about each message. Instead the number of added messages is
+ * counted per conversation and reported once at the end.
+ */
+public class XoCatchUp {
+
+    private static final Logger LOG = Logger.getLogger(XoCatchUp.class);
+
+    XoClientDatabase mDatabase;
+
+    /** Messages waiting for the next batch */
+    List<XoClientDatabase.UnitOfWork> mBatch = new ArrayList<XoClientDatabase.UnitOfWork>();
+
+    /** Conversations with added messages by contact id */
+    Map<Integer, TalkClientContact> mConversations = new LinkedHashMap<Integer, TalkClientContact>();
+
+    /** Number of added messages by conversation contact id */
+    Map<Integer, Integer> mAdded = new HashMap<Integer, Integer>();
+
+    /** Total number of messages processed */
+    int mTotal = 0;
+
+    boolean mFinished = false;
+
+    public XoCatchUp(XoClientDatabase database) {
+        mDatabase = database;
+    }
+
+    /**
+     * Queue a message for the next batch
+     *
+     * @param conversation the message belongs to
+     * @param added true if the message is new
+     * @param unit persisting the message
+     * @return false if the catch-up has already finished and the message must be handled normally
+     */
+    public boolean add(TalkClientContact conversation, boolean added, XoClientDatabase.UnitOfWork unit) {
+        boolean full;
+        synchronized (this) {
+            if(mFinished) {
+                return false;
+            }
+            mBatch.add(unit);
+            mTotal++;
+            if(added && conversation != null) {
+                int contactId = conversation.getClientContactId();
+                mConversations.put(contactId, conversation);
+                Integer count = mAdded.get(contactId);
+                mAdded.put(contactId, count == null ? 1 : count + 1);
+            }
+            full = mBatch.size() >= XoClientConfiguration.CATCHUP_BATCH_SIZE;
+        }
+        if(full) {
+            flush();
+        }
+        return true;
+    }
+
+    /**
+     * Hand all queued messages to the database for a shared commit
+     */
+    public void flush() {
+        List<XoClientDatabase.UnitOfWork> batch;
+        synchronized (this) {
+            if(mBatch.isEmpty()) {
+                return;
+            }
+            batch = mBatch;
+            mBatch = new ArrayList<XoClientDatabase.UnitOfWork>();
+        }
+        LOG.debug("catch-up: committing " + batch.size() + " messages");
+        mDatabase.submitUnits(batch);
+    }
+
+    /**
+     * Persist what is left and stop accepting messages
+     *
+     * @return number of added messages by conversation
+     */
+    public Map<TalkClientContact, Integer> finish() {
+        synchronized (this) {
+            mFinished = true;
+        }
+        flush();
+        mDatabase.awaitUnits();
+        Map<TalkClientContact, Integer> result = new LinkedHashMap<TalkClientContact, Integer>();
+        synchronized (this) {
+            for(Map.Entry<Integer, TalkClientContact> entry: mConversations.entrySet()) {
+                result.put(entry.getValue(), mAdded.get(entry.getKey()));
+            }
+            LOG.info("catch-up: processed " + mTotal + " messages in " + result.size() + " conversations");
+        }
+        return result;
+    }
+
+}
@@ -12,12 +12,14 @@ import com.fasterxml.jackson.databind.DeserializationFeature;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.hoccer.talk.client.model.TalkClientContact;
 import com.hoccer.talk.client.model.TalkClientDownload;
 import com.hoccer.talk.client.model.TalkClientMembership;
 import com.hoccer.talk.client.model.TalkClientMessage;
 import com.hoccer.talk.client.model.TalkClientSelf;
 import com.hoccer.talk.client.model.TalkClientSmsToken;
+import com.hoccer.talk.client.model.TalkClientSyncState;
 import com.hoccer.talk.client.model.TalkClientUpload;
 import com.hoccer.talk.crypto.AESCryptor;
 import com.hoccer.talk.crypto.CryptoJSON;
@@ -48,11 +50,18 @@ import java.nio.charset.Charset;
 import java.security.*;
 import java.sql.SQLException;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class XoClient implements JsonRpcConnection.Listener {
 
@@ -75,6 +84,19 @@ public class XoClient implements JsonRpcConnection.Listener {
     /** State while there is an active connection */
     public static final int STATE_ACTIVE = 7;
 
+    /** Sync phase while not synchronizing */
+    public static final int SYNC_PHASE_NONE = 0;
+    /** Sync phase publishing our own key and presence */
+    public static final int SYNC_PHASE_KEYS = 1;
+    /** Sync phase for presences and relationships, messaging is enabled from here on */
+    public static final int SYNC_PHASE_CONTACTS = 2;
+    /** Sync phase for group presences */
+    public static final int SYNC_PHASE_GROUPS = 3;
+    /** Sync phase for group members */
+    public static final int SYNC_PHASE_MEMBERS = 4;
+    /** Sync phase after synchronization completed */
+    public static final int SYNC_PHASE_DONE = 5;
+
     /** Digest instance used for SRP auth */
     private final Digest SRP_DIGEST = new SHA256Digest();
     /** RNG used for SRP auth */
@@ -82,11 +104,27 @@ public class XoClient implements JsonRpcConnection.Listener {
     /** Constant SRP parameters */
     private static final SRP6Parameters SRP_PARAMETERS = SRP6Parameters.CONSTANTS_1024;
 
+    /** Sync category for client presences */
+    private static final String SYNC_PRESENCES = "presences";
+    /** Sync category for client relationships */
+    private static final String SYNC_RELATIONSHIPS = "relationships";
+    /** Sync category for group presences */
+    private static final String SYNC_GROUPS = "groups";
+    /** Prefix of the per-group sync categories for group members */
+    private static final String SYNC_GROUP_MEMBERS_PREFIX = "members:";
+    /** Sync category holding the start of an unfinished sync round */
+    private static final String SYNC_ROUND = "round";
+
     /** Names of our states for debugging */
     private static final String[] STATE_NAMES = {
             "inactive", "idle", "connecting", "reconnecting", "registering", "login", "syncing", "active"
     };
 
+    /** Names of our sync phases for debugging */
+    private static final String[] SYNC_PHASE_NAMES = {
+            "none", "keys", "contacts", "groups", "members", "done"
+    };
+
     /** Return the name of the given state */
     public static final String stateToString(int state) {
         if(state >= 0 && state < STATE_NAMES.length) {
@@ -116,6 +154,12 @@ public class XoClient implements JsonRpcConnection.Listener {
 
     XoTransferAgent mTransferAgent;
 
+    /** Queue coalescing delivery confirmations */
+    XoConfirmationQueue mConfirmationQueue;
+
+    /** Message keys already unwrapped with our private key */
+    XoMessageKeyCache mMessageKeyCache = new XoMessageKeyCache(XoClientConfiguration.MESSAGE_KEY_CACHE_SIZE);
+
     /** Factory for underlying websocket connections */
     WebSocketClientFactory mClientFactory;
     /** JSON-RPC client instance */
@@ -124,10 +168,36 @@ public class XoClient implements JsonRpcConnection.Listener {
     TalkRpcClientImpl mHandler;
     /* RPC proxy bound to our server */
     ITalkRpcServer mServerRpc;
+    /* Asynchronous pipeline on top of the RPC proxy */
+    XoRpcPipeline mServerRpcPipeline;
 
     /** Executor doing all the heavy network and database work */
     ScheduledExecutorService mExecutor;
 
+    /** Priority lanes for work that is not timer-driven */
+    XoLaneScheduler mScheduler;
+
+    /** Executor for incoming notifications, ordered per conversation */
+    XoStripedExecutor mIncomingExecutor;
+
+    /** Executor decrypting incoming messages ahead of their processing */
+    ThreadPoolExecutor mDecryptExecutor;
+
+    /** Number of incoming deliveries received but not yet processed */
+    AtomicInteger mIncomingBacklog = new AtomicInteger(0);
+
+    /** Ids of incoming messages with a unit of work that is not yet committed */
+    Set<String> mUncommittedMessages = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+    /** Current catch-up on a large incoming backlog, null if not catching up */
+    volatile XoCatchUp mCatchUp;
+
+    /** Incoming deliveries held back until the sync has caught up with their conversation */
+    final List<ParkedDelivery> mParkedDeliveries = new ArrayList<ParkedDelivery>();
+
+    /** True while incoming deliveries are held back, guarded by mParkedDeliveries */
+    boolean mParkingDeliveries = false;
+
     /* Futures keeping track of singleton background operations */
     ScheduledFuture<?> mLoginFuture;
     ScheduledFuture<?> mRegistrationFuture;
@@ -140,7 +210,10 @@ public class XoClient implements JsonRpcConnection.Listener {
     Set<IXoContactListener> mContactListeners = new HashSet<IXoContactListener>();
     Set<IXoMessageListener> mMessageListeners = new HashSet<IXoMessageListener>();
     Set<IXoStateListener> mStateListeners = new HashSet<IXoStateListener>();
+    Set<IXoSyncListener> mSyncListeners = new HashSet<IXoSyncListener>();
     Set<IXoUnseenListener> mUnseenListeners = new HashSet<IXoUnseenListener>();
+    Set<IXoUnseenDeltaListener> mUnseenDeltaListeners = new HashSet<IXoUnseenDeltaListener>();
+    Set<IXoCatchUpListener> mCatchUpListeners = new HashSet<IXoCatchUpListener>();
     Set<IXoTokenListener> mTokenListeners = new HashSet<IXoTokenListener>();
     Set<IXoAlertListener> mAlertListeners = new HashSet<IXoAlertListener>();
 
@@ -149,6 +222,15 @@ public class XoClient implements JsonRpcConnection.Listener {
     /** The current state of this client */
     int mState = STATE_INACTIVE;
 
+    /** The current sync phase, only meaningful while logged in */
+    volatile int mSyncPhase = SYNC_PHASE_NONE;
+
+    /** True once the server has been told we are ready for deliveries on this connection */
+    AtomicBoolean mMessagingStarted = new AtomicBoolean(false);
+
+    /** True while a delivery run is queued in the delivery lane and has not started yet */
+    AtomicBoolean mDeliveryRequested = new AtomicBoolean(false);
+
     /** Connection retry count for back-off */
     int mConnectionFailures = 0;
 
@@ -180,6 +262,15 @@ public class XoClient implements JsonRpcConnection.Listener {
 
         // fetch executor and db immediately
         mExecutor = host.getBackgroundExecutor();
+        mScheduler = new XoLaneScheduler(host);
+        mIncomingExecutor = new XoStripedExecutor(host.getIncomingBackgroundExecutor());
+        ThreadFactoryBuilder tfb = new ThreadFactoryBuilder();
+        tfb.setNameFormat("decrypt-%d");
+        tfb.setUncaughtExceptionHandler(host.getUncaughtExceptionHandler());
+        mDecryptExecutor = new ThreadPoolExecutor(XoClientConfiguration.DECRYPT_THREADS, XoClientConfiguration.DECRYPT_THREADS,
+                XoClientConfiguration.DECRYPT_THREAD_KEEPALIVE, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), tfb.build());
+        mDecryptExecutor.allowCoreThreadTimeOut(true);
 
         // create and initialize the database
         mDatabase = new XoClientDatabase(mClientHost.getDatabaseBackend());
@@ -231,10 +322,15 @@ public class XoClient implements JsonRpcConnection.Listener {
 
         // create RPC proxy
         mServerRpc = mConnection.makeProxy(ITalkRpcServer.class);
+        mServerRpcPipeline = new XoRpcPipeline(this, mServerRpc, XoClientConfiguration.RPC_MAX_IN_FLIGHT);
 
         // create transfer agent
         mTransferAgent = new XoTransferAgent(this);
 
+        // create confirmation queue, picking up confirmations not sent before
+        mConfirmationQueue = new XoConfirmationQueue(this);
+        mConfirmationQueue.initialize();
+
         // ensure we have a self contact
         ensureSelfContact();
     }
@@ -327,6 +423,10 @@ public class XoClient implements JsonRpcConnection.Listener {
         return mTransferAgent;
     }
 
+    public XoConfirmationQueue getConfirmationQueue() {
+        return mConfirmationQueue;
+    }
+
     /**
      * @return the RPC proxy towards the server
      */
@@ -334,6 +434,17 @@ public class XoClient implements JsonRpcConnection.Listener {
         return mServerRpc;
     }
 
+    /**
+     * @return the asynchronous RPC pipeline towards the server
+     */
+    public XoRpcPipeline getServerRpcPipeline() {
+        return mServerRpcPipeline;
+    }
+
+    public XoLaneScheduler getScheduler() {
+        return mScheduler;
+    }
+
     /**
      * @return the RPC handler for notifications
      */
@@ -371,6 +482,14 @@ public class XoClient implements JsonRpcConnection.Listener {
         mStateListeners.remove(listener);
     }
 
+    public synchronized void registerSyncListener(IXoSyncListener listener) {
+        mSyncListeners.add(listener);
+    }
+
+    public synchronized void unregisterSyncListener(IXoSyncListener listener) {
+        mSyncListeners.remove(listener);
+    }
+
     public synchronized void registerContactListener(IXoContactListener listener) {
         mContactListeners.add(listener);
     }
@@ -395,6 +514,22 @@ public class XoClient implements JsonRpcConnection.Listener {
         mUnseenListeners.remove(listener);
     }
 
+    public synchronized void registerCatchUpListener(IXoCatchUpListener listener) {
+        mCatchUpListeners.add(listener);
+    }
+
+    public synchronized void unregisterCatchUpListener(IXoCatchUpListener listener) {
+        mCatchUpListeners.remove(listener);
+    }
+
+    public synchronized void registerUnseenDeltaListener(IXoUnseenDeltaListener listener) {
+        mUnseenDeltaListeners.add(listener);
+    }
+
+    public synchronized void unregisterUnseenDeltaListener(IXoUnseenDeltaListener listener) {
+        mUnseenDeltaListeners.remove(listener);
+    }
+
     public synchronized void registerTransferListener(IXoTransferListener listener) {
         mTransferAgent.registerListener(listener);
     }
@@ -427,6 +562,55 @@ public class XoClient implements JsonRpcConnection.Listener {
         mAlertListeners.remove(listener);
     }
 
+    /**
+     * Notify listeners about a message that may have changed its seen state
+     *
+     * Delta listeners are told about the change, listeners for the
+     * complete list of unseen messages only when any are registered
+     * because that requires reloading all unseen messages.
+     *
+     * @param message that was saved
+     * @param wasUnseen true if the message was unseen before it was saved
+     * @param notify true if the user should be notified
+     */
+    private void notifyUnseenChange(TalkClientMessage message, boolean wasUnseen, boolean notify) {
+        boolean isUnseen = mDatabase.isUnseen(message);
+        if(isUnseen != wasUnseen) {
+            TalkClientContact conversation = message.getConversationContact();
+            int conversationUnseen = conversation == null ? 0 : mDatabase.getUnseenCount(conversation.getClientContactId());
+            int totalUnseen = mDatabase.getUnseenCount();
+            for(IXoUnseenDeltaListener listener: mUnseenDeltaListeners) {
+                if(isUnseen) {
+                    listener.onUnseenMessageAdded(message, conversationUnseen, totalUnseen, notify);
+                } else {
+                    listener.onUnseenMessageCleared(message, conversationUnseen, totalUnseen);
+                }
+            }
+        }
+        if(!mUnseenListeners.isEmpty()) {
+            notifyUnseenMessages(notify);
+        }
+    }
+
+    /**
+     * Tell delta listeners the current unseen counts of the given conversations
+     *
+     * Used instead of single deltas when many messages changed at once.
+     */
+    private void notifyUnseenResync(Collection<TalkClientContact> conversations, boolean notify) {
+        if(mUnseenDeltaListeners.isEmpty()) {
+            return;
+        }
+        Map<TalkClientContact, Integer> conversationUnseen = new HashMap<TalkClientContact, Integer>();
+        for(TalkClientContact conversation: conversations) {
+            conversationUnseen.put(conversation, mDatabase.getUnseenCount(conversation.getClientContactId()));
+        }
+        int totalUnseen = mDatabase.getUnseenCount();
+        for(IXoUnseenDeltaListener listener: mUnseenDeltaListeners) {
+            listener.onUnseenMessagesResync(conversationUnseen, totalUnseen, notify);
+        }
+    }
+
     private void notifyUnseenMessages(boolean notify) {
         LOG.debug("notifyUnseenMessages()");
         List<TalkClientMessage> unseenMessages = null;
@@ -478,6 +662,20 @@ public class XoClient implements JsonRpcConnection.Listener {
         return mState >= STATE_SYNCING;
     }
 
+    /**
+     * Returns true if messages can be sent and received
+     *
+     * This is the case as soon as we are logged in and our key
+     * is published, even while the rest of the sync is still running.
+     */
+    public boolean isMessagingReady() {
+        return isLoggedIn() && mSyncPhase >= SYNC_PHASE_CONTACTS;
+    }
+
+    public int getSyncPhase() {
+        return mSyncPhase;
+    }
+
     /**
      * Returns true if the client is awake
      *
@@ -496,7 +694,7 @@ public class XoClient implements JsonRpcConnection.Listener {
         LOG.debug("client: activate()");
         if(mState == STATE_INACTIVE) {
             // run transfer fixups on database in background
-            mExecutor.execute(new Runnable() {
+            mScheduler.execute(XoLaneScheduler.Lane.BACKGROUND, new Runnable() {
                 @Override
                 public void run() {
                     mTransferAgent.runFixups();
@@ -518,6 +716,12 @@ public class XoClient implements JsonRpcConnection.Listener {
         if(mState != STATE_INACTIVE) {
             switchState(STATE_INACTIVE, "client deactivated");
         }
+        mScheduler.execute(XoLaneScheduler.Lane.BACKGROUND, new Runnable() {
+            @Override
+            public void run() {
+                mTransferAgent.saveUnsavedProgress();
+            }
+        });
     }
 
     /**
@@ -536,7 +740,7 @@ public class XoClient implements JsonRpcConnection.Listener {
      */
     public void reconnect(final String reason) {
         if(mState > STATE_IDLE) {
-            mExecutor.execute(new Runnable() {
+            mScheduler.execute(XoLaneScheduler.Lane.INTERACTIVE, new Runnable() {
                 @Override
                 public void run() {
                     switchState(STATE_RECONNECTING, "reconnect: " + reason);
@@ -555,6 +759,8 @@ public class XoClient implements JsonRpcConnection.Listener {
         mConnectFuture.cancel(true);
         mDisconnectFuture.cancel(true);
         mState = STATE_INACTIVE;
+        // the progress writer keeps running, the client may be activated again
+        mTransferAgent.saveUnsavedProgress();
     }
 
     /**
@@ -564,6 +770,8 @@ public class XoClient implements JsonRpcConnection.Listener {
         LOG.debug("regenerateKeyPair()");
         mSelfContact.setPublicKey(null);
         mSelfContact.setPrivateKey(null);
+        mDatabase.getKeyCache().clear();
+        mMessageKeyCache.clear();
         ensureSelfKey(mSelfContact);
     }
 
@@ -572,7 +780,7 @@ public class XoClient implements JsonRpcConnection.Listener {
     }
 
     public void scheduleHello() {
-        mExecutor.execute(new Runnable() {
+        mScheduler.execute(XoLaneScheduler.Lane.BACKGROUND, new Runnable() {
             @Override
             public void run() {
                 hello();
@@ -620,7 +828,7 @@ public class XoClient implements JsonRpcConnection.Listener {
      */
     public void registerGcm(final String packageName, final String registrationId) {
         resetIdle();
-        mExecutor.execute(new Runnable() {
+        mScheduler.execute(XoLaneScheduler.Lane.BACKGROUND, new Runnable() {
             @Override
             public void run() {
                 mServerRpc.registerGcm(packageName, registrationId);
@@ -633,7 +841,7 @@ public class XoClient implements JsonRpcConnection.Listener {
      */
     public void unregisterGcm() {
         resetIdle();
-        mExecutor.execute(new Runnable() {
+        mScheduler.execute(XoLaneScheduler.Lane.BACKGROUND, new Runnable() {
             @Override
             public void run() {
                 mServerRpc.unregisterGcm();
@@ -693,7 +901,7 @@ public class XoClient implements JsonRpcConnection.Listener {
     public void setClientAvatar(final TalkClientUpload upload) {
         LOG.debug("new avatar as upload " + upload);
         resetIdle();
-        mExecutor.execute(new Runnable() {
+        mScheduler.execute(XoLaneScheduler.Lane.INTERACTIVE, new Runnable() {
             @Override
             public void run() {
                 LOG.debug("registering client avatar");
@@ -729,7 +937,7 @@ public class XoClient implements JsonRpcConnection.Listener {
     }
 
     public void setGroupName(final TalkClientContact group, final String groupName) {
-       mExecutor.execute(new Runnable() {
+       mScheduler.execute(XoLaneScheduler.Lane.INTERACTIVE, new Runnable() {
            @Override
            public void run() {
                LOG.debug("changing group name");
@@ -759,7 +967,7 @@ public class XoClient implements JsonRpcConnection.Listener {
     }
 
     public void setGroupAvatar(final TalkClientContact group, final TalkClientUpload upload) {
-        mExecutor.execute(new Runnable() {
+        mScheduler.execute(XoLaneScheduler.Lane.INTERACTIVE, new Runnable() {
             @Override
             public void run() {
                 LOG.debug("registering group avatar");
@@ -823,7 +1031,7 @@ public class XoClient implements JsonRpcConnection.Listener {
 
     public void performTokenPairing(final String token) {
         resetIdle();
-        mExecutor.execute(new Runnable() {
+        mScheduler.execute(XoLaneScheduler.Lane.INTERACTIVE, new Runnable() {
             @Override
             public void run() {
                 if (mServerRpc.pairByToken(token)) {
@@ -842,7 +1050,7 @@ public class XoClient implements JsonRpcConnection.Listener {
     public void depairContact(final TalkClientContact contact) {
         resetIdle();
         if(contact.isClient()) {
-            mExecutor.execute(new Runnable() {
+            mScheduler.execute(XoLaneScheduler.Lane.INTERACTIVE, new Runnable() {
                 @Override
                 public void run() {
                     mServerRpc.depairClient(contact.getClientId());
@@ -854,7 +1062,7 @@ public class XoClient implements JsonRpcConnection.Listener {
     public void deleteContact(final TalkClientContact contact) {
         resetIdle();
         if(contact.isClient() || contact.isGroup()) {
-            mExecutor.execute(new Runnable() {
+            mScheduler.execute(XoLaneScheduler.Lane.INTERACTIVE, new Runnable() {
                 @Override
                 public void run() {
                     contact.markAsDeleted();
@@ -889,7 +1097,7 @@ public class XoClient implements JsonRpcConnection.Listener {
     public void blockContact(final TalkClientContact contact) {
         resetIdle();
         if(contact.isClient()) {
-            mExecutor.execute(new Runnable() {
+            mScheduler.execute(XoLaneScheduler.Lane.INTERACTIVE, new Runnable() {
                 @Override
                 public void run() {
                     mServerRpc.blockClient(contact.getClientId());
@@ -901,7 +1109,7 @@ public class XoClient implements JsonRpcConnection.Listener {
     public void unblockContact(final TalkClientContact contact) {
         resetIdle();
         if(contact.isClient()) {
-            mExecutor.execute(new Runnable() {
+            mScheduler.execute(XoLaneScheduler.Lane.INTERACTIVE, new Runnable() {
                 @Override
                 public void run() {
                     mServerRpc.unblockClient(contact.getClientId());
@@ -913,7 +1121,7 @@ public class XoClient implements JsonRpcConnection.Listener {
     public void createGroup(final TalkClientContact groupContact) {
         LOG.debug("createGroup()");
         resetIdle();
-        mExecutor.execute(new Runnable() {
+        mScheduler.execute(XoLaneScheduler.Lane.INTERACTIVE, new Runnable() {
             @Override
             public void run() {
                 try {
@@ -995,7 +1203,7 @@ public class XoClient implements JsonRpcConnection.Listener {
 
     public void inviteClientToGroup(final String groupId, final String clientId) {
         resetIdle();
-        mExecutor.execute(new Runnable() {
+        mScheduler.execute(XoLaneScheduler.Lane.INTERACTIVE, new Runnable() {
             @Override
             public void run() {
                 try {
@@ -1009,7 +1217,7 @@ public class XoClient implements JsonRpcConnection.Listener {
 
     public void kickClientFromGroup(final String groupId, final String clientId) {
         resetIdle();
-        mExecutor.execute(new Runnable() {
+        mScheduler.execute(XoLaneScheduler.Lane.INTERACTIVE, new Runnable() {
             @Override
             public void run() {
                 mServerRpc.removeGroupMember(groupId, clientId);
@@ -1019,7 +1227,7 @@ public class XoClient implements JsonRpcConnection.Listener {
 
     public void joinGroup(final String groupId) {
         resetIdle();
-        mExecutor.execute(new Runnable() {
+        mScheduler.execute(XoLaneScheduler.Lane.INTERACTIVE, new Runnable() {
             @Override
             public void run() {
                 mServerRpc.joinGroup(groupId);
@@ -1029,7 +1237,7 @@ public class XoClient implements JsonRpcConnection.Listener {
 
     public void leaveGroup(final String groupId) {
         resetIdle();
-        mExecutor.execute(new Runnable() {
+        mScheduler.execute(XoLaneScheduler.Lane.INTERACTIVE, new Runnable() {
             @Override
             public void run() {
                 mServerRpc.leaveGroup(groupId);
@@ -1046,15 +1254,20 @@ public class XoClient implements JsonRpcConnection.Listener {
 
     private void requestDelivery() {
 
-        if (mState < STATE_ACTIVE) {
-            LOG.info("requestDelivery() - cannot perform delivery in INACTIVE state.");
+        if (!isMessagingReady()) {
+            LOG.info("requestDelivery() - cannot perform delivery before login and key setup.");
             return;
         }
 
         resetIdle();
-        mExecutor.execute(new Runnable() {
+        // requests made before a queued run starts are covered by that run
+        if(!mDeliveryRequested.compareAndSet(false, true)) {
+            return;
+        }
+        mScheduler.execute(XoLaneScheduler.Lane.DELIVERY, new Runnable() {
             @Override
             public void run() {
+                mDeliveryRequested.set(false);
                 performDeliveries();
             }
         });
@@ -1080,6 +1293,13 @@ public class XoClient implements JsonRpcConnection.Listener {
         int previousState = mState;
         mState = newState;
 
+        // a new sync starts with every login
+        if(mState < STATE_SYNCING) {
+            mSyncPhase = SYNC_PHASE_NONE;
+            mMessagingStarted.set(false);
+            discardParkedDeliveries();
+        }
+
         // maintain keep-alives timer
         if(mState >= STATE_SYNCING) {
             scheduleKeepAlive();
@@ -1134,14 +1354,11 @@ public class XoClient implements JsonRpcConnection.Listener {
 
         if(mState == STATE_ACTIVE) {
             mConnectionFailures = 0;
-            // start talking
-            mExecutor.execute(new Runnable() {
+            // start talking unless the sync already did
+            mScheduler.execute(XoLaneScheduler.Lane.DELIVERY, new Runnable() {
                 @Override
                 public void run() {
-                    mServerRpc.ready();
-                    LOG.info("[connection #" + mConnection.getConnectionId() + "] connected and ready");
-                    LOG.info("Delivering potentially unsent messages.");
-                    requestDelivery();
+                    startMessaging();
                 }
             });
         }
@@ -1359,33 +1576,92 @@ public class XoClient implements JsonRpcConnection.Listener {
 
     private void scheduleSync() {
         LOG.debug("scheduleSync()");
-        mExecutor.execute(new Runnable() {
+        mScheduler.execute(XoLaneScheduler.Lane.SYNC, new Runnable() {
             @Override
             public void run() {
-                Date never = new Date(0);
+                // deliveries may arrive before their conversation is synced
+                startParkingDeliveries();
                 try {
                     LOG.debug("sync: HELLO");
                     hello();
+                    switchSyncPhase(SYNC_PHASE_KEYS);
+                    // everything changed after this point will be fetched by the next sync,
+                    // an interrupted round is resumed skipping what it already completed
+                    final Date syncStart = beginSyncRound();
+                    final Date presencesSince = getSyncWatermark(SYNC_PRESENCES);
+                    final Date relationshipsSince = getSyncWatermark(SYNC_RELATIONSHIPS);
+                    final Date groupsSince = getSyncWatermark(SYNC_GROUPS);
                     LOG.debug("sync: updating presence");
                     ScheduledFuture sendPresenceFuture = sendPresence();
-                    LOG.debug("sync: syncing presences");
-                    TalkPresence[] presences = mServerRpc.getPresences(never);
-                    for (TalkPresence presence : presences) {
-                        updateClientPresence(presence, null);
+                    // issue all independent queries at once so we wait for one round trip instead of three
+                    Future<TalkPresence[]> presencesFuture = null;
+                    if (!isSyncCheckpointed(SYNC_PRESENCES, syncStart)) {
+                        presencesFuture = mServerRpcPipeline.submit(new Callable<TalkPresence[]>() {
+                            @Override
+                            public TalkPresence[] call() {
+                                return mServerRpc.getPresences(presencesSince);
+                            }
+                        });
                     }
-                    LOG.debug("sync: syncing relationships");
-                    TalkRelationship[] relationships = mServerRpc.getRelationships(never);
-                    for (TalkRelationship relationship : relationships) {
-                        updateClientRelationship(relationship);
+                    Future<TalkRelationship[]> relationshipsFuture = null;
+                    if (!isSyncCheckpointed(SYNC_RELATIONSHIPS, syncStart)) {
+                        relationshipsFuture = mServerRpcPipeline.submit(new Callable<TalkRelationship[]>() {
+                            @Override
+                            public TalkRelationship[] call() {
+                                return mServerRpc.getRelationships(relationshipsSince);
+                            }
+                        });
                     }
-                    LOG.debug("sync: syncing groups");
-                    TalkGroup[] groups = mServerRpc.getGroups(never);
-                    for (TalkGroup group : groups) {
-                        if (group.getState().equals(TalkGroup.STATE_EXISTS)) {
-                            updateGroupPresence(group);
-                        }
+                    Future<TalkGroup[]> groupsFuture = null;
+                    if (!isSyncCheckpointed(SYNC_GROUPS, syncStart)) {
+                        groupsFuture = mServerRpcPipeline.submit(new Callable<TalkGroup[]>() {
+                            @Override
+                            public TalkGroup[] call() {
+                                return mServerRpc.getGroups(groupsSince);
+                            }
+                        });
+                    }
+
+                    // messaging only needs our own key, the rest of the sync continues in the background
+                    sendPresenceFuture.get();
+                    switchSyncPhase(SYNC_PHASE_CONTACTS);
+                    startMessaging();
+
+                    if (presencesFuture != null) {
+                        LOG.debug("sync: syncing presences since " + presencesSince);
+                        applySyncPages(SYNC_PHASE_CONTACTS, getRpcResult(presencesFuture), new SyncItemHandler<TalkPresence>() {
+                            @Override
+                            void apply(TalkPresence presence) {
+                                updateClientPresence(presence, null);
+                            }
+                        });
+                        updateSyncWatermark(SYNC_PRESENCES, syncStart);
+                    }
+                    if (relationshipsFuture != null) {
+                        LOG.debug("sync: syncing relationships since " + relationshipsSince);
+                        applySyncPages(SYNC_PHASE_CONTACTS, getRpcResult(relationshipsFuture), new SyncItemHandler<TalkRelationship>() {
+                            @Override
+                            void apply(TalkRelationship relationship) {
+                                updateClientRelationship(relationship);
+                            }
+                        });
+                        updateSyncWatermark(SYNC_RELATIONSHIPS, syncStart);
+                    }
+                    switchSyncPhase(SYNC_PHASE_GROUPS);
+                    if (groupsFuture != null) {
+                        LOG.debug("sync: syncing groups since " + groupsSince);
+                        applySyncPages(SYNC_PHASE_GROUPS, getRpcResult(groupsFuture), new SyncItemHandler<TalkGroup>() {
+                            @Override
+                            void apply(TalkGroup group) {
+                                if (group.getState().equals(TalkGroup.STATE_EXISTS)) {
+                                    updateGroupPresence(group);
+                                }
+                            }
+                        });
+                        updateSyncWatermark(SYNC_GROUPS, syncStart);
                     }
 
+                    switchSyncPhase(SYNC_PHASE_MEMBERS);
                     LOG.debug("sync: syncing group memberships");
                     List<TalkClientContact> contacts = mDatabase.findAllGroupContacts();
                     List<TalkClientContact> groupContacts = new ArrayList<TalkClientContact>();
@@ -1399,17 +1675,30 @@ public class XoClient implements JsonRpcConnection.Listener {
                     if (groupIds.size() > 0) {
                         Boolean[] groupMembershipFlags = mServerRpc.isMemberInGroups(groupIds.toArray(new String[groupIds.size()]));
 
+                        // fetch the member lists of all joined groups concurrently
+                        Map<String, Future<TalkGroupMember[]>> memberFutures = new LinkedHashMap<String, Future<TalkGroupMember[]>>();
                         for (int i = 0; i < groupContacts.size(); i++) {
                             TalkClientContact groupContact = groupContacts.get(i);
                             try {
                                 LOG.debug("sync: membership in group (" + groupContact.getGroupId() + ") : '" + groupMembershipFlags[i] + "'");
 
+                                final String groupId = groupContact.getGroupId();
+                                String membersCategory = SYNC_GROUP_MEMBERS_PREFIX + groupId;
                                 if (groupMembershipFlags[i]) {
-                                    TalkGroupMember[] members = mServerRpc.getGroupMembers(groupContact.getGroupId(), never);
-                                    for (TalkGroupMember member : members) {
-                                        updateGroupMember(member);
+                                    if (isSyncCheckpointed(membersCategory, syncStart)) {
+                                        LOG.debug("sync: members of group " + groupId + " already synced in this round");
+                                        continue;
                                     }
+                                    final Date membersSince = getSyncWatermark(membersCategory);
+                                    memberFutures.put(groupId, mServerRpcPipeline.submit(new Callable<TalkGroupMember[]>() {
+                                        @Override
+                                        public TalkGroupMember[] call() {
+                                            return mServerRpc.getGroupMembers(groupId, membersSince);
+                                        }
+                                    }));
                                 } else {
+                                    // a later membership must be synced from scratch
+                                    updateSyncWatermark(membersCategory, null);
                                     // TODO: properly handle group deletion, the following code just marks the group and members as deleted
                                     LOG.info("Removing members and group with name="+ groupContact.getName());
                                     TalkGroup groupPresence = groupContact.getGroupPresence();
@@ -1435,11 +1724,43 @@ public class XoClient implements JsonRpcConnection.Listener {
                                 LOG.error("Error while updating group members: ", e);
                             }
                         }
+
+                        Map<String, TalkGroupMember[]> memberLists = new LinkedHashMap<String, TalkGroupMember[]>();
+                        int membersDone = 0;
+                        for (Map.Entry<String, Future<TalkGroupMember[]>> entry : memberFutures.entrySet()) {
+                            notifySyncProgress(SYNC_PHASE_MEMBERS, membersDone++, memberFutures.size());
+                            try {
+                                memberLists.put(entry.getKey(), getRpcResult(entry.getValue()));
+                            } catch (JsonRpcClientException e) {
+                                LOG.error("Error while updating group member: ", e);
+                            } catch (RuntimeException e) {
+                                LOG.error("Error while updating group members: ", e);
+                            } catch (ExecutionException e) {
+                                LOG.error("Error while updating group members: ", e);
+                            }
+                        }
+
+                        // apply each member list in its own transaction, together with its watermark,
+                        // so that incoming deliveries and queries are not locked out for the whole phase
+                        LOG.debug("sync: applying members of " + memberLists.size() + " groups");
+                        for (final Map.Entry<String, TalkGroupMember[]> entry : memberLists.entrySet()) {
+                            mDatabase.runInTransaction(new Callable<Void>() {
+                                @Override
+                                public Void call() {
+                                    for (TalkGroupMember member : entry.getValue()) {
+                                        updateGroupMember(member);
+                                    }
+                                    updateSyncWatermark(SYNC_GROUP_MEMBERS_PREFIX + entry.getKey(), syncStart);
+                                    return null;
+                                }
+                            });
+                        }
+                        notifySyncProgress(SYNC_PHASE_MEMBERS, memberFutures.size(), memberFutures.size());
                     }
-                    // ensure we are finished with generating pub/private keys before actually going active...
-                    // TODO: have a proper statemachine
-                    sendPresenceFuture.get();
+                    releaseParkedDeliveries();
 
+                    finishSyncRound();
+                    switchSyncPhase(SYNC_PHASE_DONE);
                     switchState(STATE_ACTIVE, "Synchronization successfull");
                     
                 } catch (SQLException e) {
@@ -1450,11 +1771,283 @@ public class XoClient implements JsonRpcConnection.Listener {
                     LOG.error("Error while asserting future", e);
                 } catch (ExecutionException e) {
                     e.printStackTrace();
+                } finally {
+                    // a failed sync must not hold back deliveries forever
+                    releaseParkedDeliveries();
                 }
             }
         });
     }
 
+    /**
+     * Incoming delivery held back during sync
+     */
+    private static class ParkedDelivery {
+        TalkDelivery mDelivery;
+        TalkMessage mMessage;
+
+        ParkedDelivery(TalkDelivery delivery, TalkMessage message) {
+            mDelivery = delivery;
+            mMessage = message;
+        }
+    }
+
+    private void startParkingDeliveries() {
+        synchronized (mParkedDeliveries) {
+            mParkingDeliveries = true;
+        }
+    }
+
+    /**
+     * Hold back an incoming delivery if the sync is still running
+     *
+     * Messaging starts before contacts, groups and group keys are
+     * synced, so a delivery may concern a conversation we do not
+     * know yet or be encrypted with a group key we have not seen.
+     *
+     * @return true if the delivery was held back and will be replayed
+     */
+    private boolean parkDelivery(TalkDelivery delivery, TalkMessage message) {
+        synchronized (mParkedDeliveries) {
+            if(!mParkingDeliveries) {
+                return false;
+            }
+            LOG.debug("holding back delivery of " + delivery.getMessageId() + " until sync is done");
+            mParkedDeliveries.add(new ParkedDelivery(delivery, message));
+            return true;
+        }
+    }
+
+    /**
+     * Stop holding back deliveries and process those held back so far
+     */
+    private void releaseParkedDeliveries() {
+        List<ParkedDelivery> parked;
+        synchronized (mParkedDeliveries) {
+            mParkingDeliveries = false;
+            parked = new ArrayList<ParkedDelivery>(mParkedDeliveries);
+            mParkedDeliveries.clear();
+        }
+        if(!parked.isEmpty()) {
+            LOG.debug("replaying " + parked.size() + " held back deliveries");
+        }
+        for(ParkedDelivery delivery : parked) {
+            mHandler.incomingDelivery(delivery.mDelivery, delivery.mMessage);
+        }
+    }
+
+    /**
+     * Drop held back deliveries when the connection is lost
+     *
+     * They are not confirmed, so the server delivers them again.
+     */
+    private void discardParkedDeliveries() {
+        synchronized (mParkedDeliveries) {
+            mParkingDeliveries = false;
+            mParkedDeliveries.clear();
+        }
+    }
+
+    /**
+     * Tell the server we are ready for deliveries and send what is pending
+     *
+     * Called once per login, either as soon as our key is published
+     * during sync or when becoming active, whichever comes first.
+     * Deliveries for conversations the sync has not caught up with
+     * yet are held back until the group members are synced.
+     */
+    private void startMessaging() {
+        if (!mMessagingStarted.compareAndSet(false, true)) {
+            return;
+        }
+        mServerRpc.ready();
+        LOG.info("[connection #" + mConnection.getConnectionId() + "] connected and ready");
+        LOG.info("Delivering potentially unsent messages.");
+        requestDelivery();
+        mConfirmationQueue.scheduleFlush(0);
+    }
+
+    private void switchSyncPhase(int phase) {
+        if (mState < STATE_SYNCING) {
+            return;
+        }
+        LOG.debug("sync: phase " + SYNC_PHASE_NAMES[mSyncPhase] + " -> " + SYNC_PHASE_NAMES[phase]);
+        mSyncPhase = phase;
+        for (IXoSyncListener listener : mSyncListeners) {
+            listener.onSyncPhaseChanged(this, phase);
+        }
+    }
+
+    private void notifySyncProgress(int phase, int done, int total) {
+        for (IXoSyncListener listener : mSyncListeners) {
+            listener.onSyncProgress(this, phase, done, total);
+        }
+    }
+
+    /**
+     * Determine the time from which on a sync category must be fetched
+     *
+     * Falls back to a full sync when there is no watermark or when
+     * the stored one is implausible: in the future of the server clock
+     * or older than the maximum incremental sync interval.
+     *
+     * @param category to sync
+     * @return the time to ask the server for changes since
+     */
+    private Date getSyncWatermark(String category) {
+        Date never = new Date(0);
+        try {
+            TalkClientSyncState state = mDatabase.findSyncState(category, false);
+            if(state == null || state.getWatermark() == null) {
+                LOG.debug("sync: no watermark for " + category + ", performing full sync");
+                return never;
+            }
+            long watermark = state.getWatermark().getTime();
+            long now = estimatedServerTime().getTime();
+            if(watermark > now + XoClientConfiguration.SYNC_WATERMARK_MARGIN) {
+                LOG.warn("sync: watermark for " + category + " is in the future, performing full sync");
+                return never;
+            }
+            if(now - watermark > XoClientConfiguration.SYNC_WATERMARK_MAX_AGE) {
+                LOG.debug("sync: watermark for " + category + " is too old, performing full sync");
+                return never;
+            }
+            // overlap with the previous sync to cover clock uncertainty
+            return new Date(Math.max(0, watermark - XoClientConfiguration.SYNC_WATERMARK_MARGIN));
+        } catch (SQLException e) {
+            LOG.error("SQL error", e);
+            return never;
+        }
+    }
+
+    /**
+     * Applies a single item of a sync response
+     */
+    private abstract class SyncItemHandler<T> {
+        abstract void apply(T item);
+    }
+
+    /**
+     * Apply a sync response in pages
+     *
+     * Each page is applied in its own transaction so that the database
+     * is not locked for the whole response and applied items can be
+     * collected while the rest is processed. Handlers notify listeners
+     * through XoClientDatabase.afterCommit().
+     *
+     * @param phase to report progress for
+     * @param items returned by the server, cleared while being applied
+     * @param handler applying each item
+     */
+    private <T> void applySyncPages(int phase, final T[] items, final SyncItemHandler<T> handler) throws SQLException {
+        int pageSize = XoClientConfiguration.SYNC_PAGE_SIZE;
+        for (int start = 0; start < items.length; start += pageSize) {
+            final int from = start;
+            final int to = Math.min(items.length, start + pageSize);
+            mDatabase.runInTransaction(new Callable<Void>() {
+                @Override
+                public Void call() {
+                    for (int i = from; i < to; i++) {
+                        handler.apply(items[i]);
+                        items[i] = null;
+                    }
+                    return null;
+                }
+            });
+            notifySyncProgress(phase, to, items.length);
+        }
+    }
+
+    /**
+     * Start a sync round or resume the unfinished one
+     *
+     * The start of a round is persisted until the round completes.
+     * Categories completed in the round carry its start as their
+     * watermark, so a resumed round can skip them. Rounds that are
+     * too old or implausible are discarded and a new one is started.
+     *
+     * @return the server time at which the round started
+     */
+    private Date beginSyncRound() {
+        long now = estimatedServerTime().getTime();
+        try {
+            TalkClientSyncState round = mDatabase.findSyncState(SYNC_ROUND, true);
+            Date start = round.getWatermark();
+            if(start != null) {
+                long age = now - start.getTime();
+                if(age >= -XoClientConfiguration.SYNC_WATERMARK_MARGIN && age <= XoClientConfiguration.SYNC_CHECKPOINT_MAX_AGE) {
+                    LOG.info("sync: resuming sync round started at " + start);
+                    return start;
+                }
+                LOG.debug("sync: discarding stale sync round started at " + start);
+            }
+            start = new Date(now);
+            round.setWatermark(start);
+            mDatabase.saveSyncState(round);
+            return start;
+        } catch (SQLException e) {
+            LOG.error("SQL error", e);
+            return new Date(now);
+        }
+    }
+
+    /**
+     * Mark the current sync round as complete
+     */
+    private void finishSyncRound() {
+        updateSyncWatermark(SYNC_ROUND, null);
+    }
+
+    /**
+     * @return true if the category has already been completed in the given sync round
+     */
+    private boolean isSyncCheckpointed(String category, Date round) {
+        try {
+            TalkClientSyncState state = mDatabase.findSyncState(category, false);
+            return state != null && state.getWatermark() != null
+                    && state.getWatermark().getTime() == round.getTime();
+        } catch (SQLException e) {
+            LOG.error("SQL error", e);
+            return false;
+        }
+    }
+
+    /**
+     * Remember that a sync category has been synced up to the given time
+     *
+     * @param category that was synced
+     * @param watermark server time at which the sync started, null to force a full sync next time
+     */
+    private void updateSyncWatermark(String category, Date watermark) {
+        try {
+            TalkClientSyncState state = mDatabase.findSyncState(category, true);
+            state.setWatermark(watermark);
+            mDatabase.saveSyncState(state);
+        } catch (SQLException e) {
+            LOG.error("SQL error", e);
+        }
+    }
+
+    /**
+     * Wait for a pipelined RPC call and unwrap its result
+     *
+     * RPC errors are rethrown as they would have been by a direct call.
+     */
+    private <T> T getRpcResult(Future<T> future) throws InterruptedException, ExecutionException {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if(cause instanceof JsonRpcClientException) {
+                throw (JsonRpcClientException)cause;
+            }
+            if(cause instanceof RuntimeException) {
+                throw (RuntimeException)cause;
+            }
+            throw e;
+        }
+    }
+
     private void shutdownDisconnect() {
         if(mDisconnectFuture != null) {
             mDisconnectFuture.cancel(false);
@@ -1590,7 +2183,7 @@ public class XoClient implements JsonRpcConnection.Listener {
             byte[] rawGroupKey = Base64.decodeBase64(groupContact.getGroupKey().getBytes(Charset.forName("UTF-8")));
             List<String> encryptedGroupKeys = new ArrayList<String>();
             for (TalkClientContact clientContact : clientsInGroup) {
-                PublicKey publicKey = clientContact.getPublicKey().getAsNative();
+                PublicKey publicKey = mDatabase.getKeyCache().getPublicKey(clientContact.getPublicKey());
                 try {
                     byte[] encryptedGroupKey = RSACryptor.encryptRSA(publicKey, rawGroupKey);
                     String encryptedGroupKeyString = new String(Base64.encodeBase64(encryptedGroupKey));
@@ -1635,46 +2228,112 @@ public class XoClient implements JsonRpcConnection.Listener {
         }
 
         @Override
-        public void incomingDelivery(TalkDelivery d, TalkMessage m) {
+        public void incomingDelivery(final TalkDelivery d, final TalkMessage m) {
             LOG.debug("server: incomingDelivery()");
-            updateIncomingDelivery(d, m);
+            String groupId = d.getGroupId();
+            String key = groupId != null ? groupKey(groupId) : clientKey(m.getSenderId());
+            if(mIncomingBacklog.incrementAndGet() > XoClientConfiguration.CATCHUP_THRESHOLD) {
+                startCatchUp();
+            }
+            // decrypt in parallel while earlier messages of the conversation are processed
+            final Future<DecryptedMessage> decrypted = mDecryptExecutor.submit(new Callable<DecryptedMessage>() {
+                @Override
+                public DecryptedMessage call() throws Exception {
+                    return predecryptMessage(d, m);
+                }
+            });
+            final String stripe = key;
+            mIncomingExecutor.execute(key, new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        updateIncomingDelivery(stripe, d, m, decrypted);
+                    } finally {
+                        if(mIncomingBacklog.decrementAndGet() == 0) {
+                            finishCatchUp();
+                        }
+                    }
+                }
+            });
         }
 
         @Override
-        public void outgoingDelivery(TalkDelivery d) {
+        public void outgoingDelivery(final TalkDelivery d) {
             LOG.debug("server: outgoingDelivery()");
-            updateOutgoingDelivery(d);
+            String groupId = d.getGroupId();
+            String key = groupId != null ? groupKey(groupId) : clientKey(d.getReceiverId());
+            mIncomingExecutor.execute(key, new Runnable() {
+                @Override
+                public void run() {
+                    updateOutgoingDelivery(d);
+                }
+            });
         }
 
         @Override
-        public void presenceUpdated(TalkPresence presence) {
+        public void presenceUpdated(final TalkPresence presence) {
             LOG.debug("server: presenceUpdated(" + presence.getClientId() + ")");
-            updateClientPresence(presence, null);
+            mIncomingExecutor.execute(clientKey(presence.getClientId()), new Runnable() {
+                @Override
+                public void run() {
+                    updateClientPresence(presence, null);
+                }
+            });
         }
 
         @Override
-        public void presenceModified(TalkPresence presence) {
+        public void presenceModified(final TalkPresence presence) {
             LOG.debug("server: presenceModified(" + presence.getClientId() + ")");
-            Set<String> fields = presence.nonNullFields();
-            updateClientPresence(presence, fields);
+            final Set<String> fields = presence.nonNullFields();
+            mIncomingExecutor.execute(clientKey(presence.getClientId()), new Runnable() {
+                @Override
+                public void run() {
+                    updateClientPresence(presence, fields);
+                }
+            });
         }
 
         @Override
-        public void relationshipUpdated(TalkRelationship relationship) {
+        public void relationshipUpdated(final TalkRelationship relationship) {
             LOG.debug("server: relationshipUpdated(" + relationship.getOtherClientId() + ")");
-            updateClientRelationship(relationship);
+            mIncomingExecutor.execute(clientKey(relationship.getOtherClientId()), new Runnable() {
+                @Override
+                public void run() {
+                    updateClientRelationship(relationship);
+                }
+            });
         }
 
         @Override
-        public void groupUpdated(TalkGroup group) {
+        public void groupUpdated(final TalkGroup group) {
             LOG.debug("server: groupUpdated(" + group.getGroupId() + ")");
-            updateGroupPresence(group);
+            mIncomingExecutor.execute(groupKey(group.getGroupId()), new Runnable() {
+                @Override
+                public void run() {
+                    updateGroupPresence(group);
+                }
+            });
         }
 
         @Override
-        public void groupMemberUpdated(TalkGroupMember member) {
+        public void groupMemberUpdated(final TalkGroupMember member) {
             LOG.debug("server: groupMemberUpdated(" + member.getGroupId() + "/" + member.getClientId() + ")");
-            updateGroupMember(member);
+            mIncomingExecutor.execute(groupKey(member.getGroupId()), new Runnable() {
+                @Override
+                public void run() {
+                    updateGroupMember(member);
+                }
+            });
+        }
+
+        /** Stripe key for notifications concerning a single client */
+        private String clientKey(String clientId) {
+            return "client:" + clientId;
+        }
+
+        /** Stripe key for notifications concerning a group */
+        private String groupKey(String groupId) {
+            return "group:" + groupId;
         }
 
     }
@@ -1797,6 +2456,9 @@ public class XoClient implements JsonRpcConnection.Listener {
             mDatabase.eraseAllGroupMemberships();
             mDatabase.eraseAllGroupContacts();
 
+            // the new account must be synced from scratch
+            mDatabase.eraseAllSyncStates();
+
             reconnect("Credentials imported.");
 
             return true;
@@ -1848,7 +2510,7 @@ public class XoClient implements JsonRpcConnection.Listener {
         LOG.debug("performDeliveries()");
 
         try {
-            List<TalkClientMessage> clientMessages = mDatabase.findMessagesForDelivery();
+            List<TalkClientMessage> clientMessages = mDatabase.findMessagesForDelivery(XoClientConfiguration.DELIVERY_PAGE_SIZE);
 
             LOG.debug(clientMessages.size() + " messages to deliver");
 
@@ -1876,32 +2538,68 @@ public class XoClient implements JsonRpcConnection.Listener {
                 }
             }
 
-            for(int i = 0; i < clientMessages.size(); i++) {
-                TalkClientMessage clientMessage =  clientMessages.get(i);
-
-                LOG.debug(i + " delivering message " + clientMessage.getClientMessageId());
-
-                TalkMessage message = messages[i];
-                TalkDelivery[] delivery = new TalkDelivery[1];
-                delivery[0] = deliveries[i];
-                TalkDelivery[] resultingDeliveries = new TalkDelivery[0];
+            // keep a sliding window of delivery requests in flight
+            // and handle each result as soon as it arrives
+            final TalkDelivery[][] results = new TalkDelivery[clientMessages.size()][];
+            ExecutorCompletionService<Integer> completion = new ExecutorCompletionService<Integer>(mServerRpcPipeline);
+            int next = 0;
+            int outstanding = 0;
+            while(next < clientMessages.size() || outstanding > 0) {
+                if(next < clientMessages.size() && outstanding < XoClientConfiguration.DELIVERY_WINDOW) {
+                    int end = Math.min(clientMessages.size(), next + XoClientConfiguration.DELIVERY_WINDOW - outstanding);
+                    for(int i = next; i < end; i++) {
+                        final int index = i;
+                        final TalkMessage message = messages[i];
+                        final TalkDelivery[] delivery = new TalkDelivery[] { deliveries[i] };
+                        LOG.debug(i + " delivering message " + clientMessages.get(i).getClientMessageId());
+                        completion.submit(new Callable<Integer>() {
+                            @Override
+                            public Integer call() {
+                                results[index] = mServerRpc.deliveryRequest(message, delivery);
+                                return index;
+                            }
+                        });
+                        outstanding++;
+                    }
+                    next = end;
+                    continue;
+                }
 
                 try {
-                    clientMessage.setProgressState(true);
-                    mDatabase.saveClientMessage(clientMessage);
-                    resultingDeliveries = mServerRpc.deliveryRequest(message, delivery);
-
-                } catch (Exception e) {
-                    LOG.error("error while performing delivery request for message " + clientMessage.getClientMessageId(), e);
-
-                    clientMessage.setProgressState(false);
-                    mDatabase.saveClientMessage(clientMessage);
+                    Future<Integer> done = completion.take();
+                    outstanding--;
+                    int index = done.get();
+                    TalkDelivery[] resultingDeliveries = results[index];
+                    if(resultingDeliveries != null) {
+                        for(int j = 0; j < resultingDeliveries.length; j++) {
+                            updateOutgoingDelivery(resultingDeliveries[j]);
+                        }
+                    }
+                } catch (ExecutionException e) {
+                    LOG.error("error while performing delivery request", e.getCause());
+                } catch (InterruptedException e) {
+                    LOG.warn("interrupted while performing deliveries, releasing " + outstanding + " messages in flight");
+                    Thread.currentThread().interrupt();
+                    break;
                 }
+            }
 
-                for(int j = 0; j < resultingDeliveries.length; j++) {
-                    updateOutgoingDelivery(resultingDeliveries[j]);
+            // requests that did not produce a result stay in the outbox and are retried on the next delivery run,
+            // delivery runs never overlap in the delivery lane so messages need no persistent in-progress marker
+            int delivered = 0;
+            for(int i = 0; i < next; i++) {
+                if(results[i] == null) {
+                    LOG.error("delivery request for message " + clientMessages.get(i).getClientMessageId() + " failed");
+                } else {
+                    delivered++;
                 }
             }
+
+            // a full page may leave more messages in the outbox, the next page starts with the failed ones
+            // and still has room for new ones as long as some messages of this page left the outbox
+            if(clientMessages.size() >= XoClientConfiguration.DELIVERY_PAGE_SIZE && delivered > 0) {
+                requestDelivery();
+            }
         } catch (SQLException e) {
             LOG.error("SQL error while performing deliveries: ", e);
         }
@@ -2017,7 +2715,7 @@ public class XoClient implements JsonRpcConnection.Listener {
             if (mEnvironmentUpdateCallPending.compareAndSet(false,true)) {
 
                 final TalkEnvironment environmentToSend = environment;
-                mExecutor.execute(new Runnable() {
+                mScheduler.execute(XoLaneScheduler.Lane.BACKGROUND, new Runnable() {
                     @Override
                     public void run() {
                         try {
@@ -2041,7 +2739,7 @@ public class XoClient implements JsonRpcConnection.Listener {
 
     public void sendDestroyEnvironment(final String type) {
         if (this.getState() == STATE_ACTIVE) {
-            mExecutor.execute(new Runnable() {
+            mScheduler.execute(XoLaneScheduler.Lane.BACKGROUND, new Runnable() {
                 @Override
                 public void run() {
                     try {
@@ -2106,12 +2804,7 @@ public class XoClient implements JsonRpcConnection.Listener {
         }
 
         if(delivery.getState().equals(TalkDelivery.STATE_DELIVERED)) {
-            mExecutor.execute(new Runnable() {
-                @Override
-                public void run() {
-                    mServerRpc.deliveryAcknowledge(delivery.getMessageId(), delivery.getReceiverId());
-                }
-            });
+            mConfirmationQueue.acknowledge(delivery.getMessageId(), delivery.getReceiverId());
         }
 
         for(IXoMessageListener listener: mMessageListeners) {
@@ -2119,7 +2812,193 @@ public class XoClient implements JsonRpcConnection.Listener {
         }
     }
 
-    private void updateIncomingDelivery(final TalkDelivery delivery, final TalkMessage message) {
+    private void saveIncomingMessage(TalkClientMessage clientMessage) throws SQLException {
+        TalkClientDownload attachmentDownload = clientMessage.getAttachmentDownload();
+        if(attachmentDownload != null) {
+            mDatabase.saveClientDownload(attachmentDownload);
+        }
+        mDatabase.saveMessage(clientMessage.getMessage());
+        mDatabase.saveDelivery(clientMessage.getIncomingDelivery());
+        mDatabase.saveClientMessage(clientMessage);
+    }
+
+    /**
+     * Create the unit of work persisting an incoming message
+     *
+     * The message is confirmed and listeners are notified only after
+     * it has been committed, it is aborted if the commit fails. Both
+     * happen on the stripe of the conversation, not on the writer.
+     *
+     * The message must not be changed once the unit is submitted,
+     * later deliveries of it load a new instance after the commit.
+     *
+     * @param stripe of the conversation in mIncomingExecutor
+     * @param notify false to suppress listener callbacks during catch-up
+     */
+    private XoClientDatabase.UnitOfWork createIncomingMessageUnit(final String stripe, final TalkClientMessage clientMessage,
+                                                                  final TalkDelivery delivery, final boolean newMessage,
+                                                                  final boolean notify) {
+        final boolean wasUnseen = mDatabase.isUnseen(clientMessage);
+        return new XoClientDatabase.UnitOfWork() {
+            @Override
+            public void perform() throws SQLException {
+                saveIncomingMessage(clientMessage);
+            }
+
+            @Override
+            public void onCommit() {
+                mUncommittedMessages.remove(delivery.getMessageId());
+                mIncomingExecutor.execute(stripe, new Runnable() {
+                    @Override
+                    public void run() {
+                        TalkClientDownload attachmentDownload = clientMessage.getAttachmentDownload();
+                        if(attachmentDownload != null) {
+                            mTransferAgent.registerDownload(attachmentDownload);
+                        }
+
+                        if(notify) {
+                            for(IXoMessageListener listener: mMessageListeners) {
+                                if(newMessage) {
+                                    listener.onMessageAdded(clientMessage);
+                                } else {
+                                    listener.onMessageStateChanged(clientMessage);
+                                }
+                            }
+                            notifyUnseenChange(clientMessage, wasUnseen, newMessage);
+                        }
+
+                        if(delivery.getState().equals(TalkDelivery.STATE_DELIVERING)) {
+                            LOG.debug("confirming " + delivery.getMessageId());
+                            mConfirmationQueue.confirm(delivery.getMessageId());
+                        }
+                    }
+                });
+            }
+
+            @Override
+            public void onFailure(SQLException e) {
+                mUncommittedMessages.remove(delivery.getMessageId());
+                mIncomingExecutor.execute(stripe, new Runnable() {
+                    @Override
+                    public void run() {
+                        LOG.debug("aborting " + delivery.getMessageId());
+                        mConfirmationQueue.abort(delivery.getMessageId(), delivery.getReceiverId());
+                    }
+                });
+            }
+        };
+    }
+
+    /**
+     * Wait until a pending unit of work of the given message has been committed
+     *
+     * The unit owns its message instance until then, so a newer
+     * delivery of the message has to load it again afterwards.
+     */
+    private void awaitUncommittedMessage(String messageId) {
+        if(!mUncommittedMessages.contains(messageId)) {
+            return;
+        }
+        LOG.debug("waiting for commit of " + messageId);
+        XoCatchUp catchUp = mCatchUp;
+        if(catchUp != null) {
+            catchUp.flush();
+        }
+        mDatabase.awaitUnits();
+    }
+
+    /**
+     * Enter catch-up mode unless already catching up
+     */
+    private synchronized void startCatchUp() {
+        if(mCatchUp != null) {
+            return;
+        }
+        LOG.info("catch-up: " + mIncomingBacklog.get() + " incoming deliveries queued, starting catch-up");
+        mCatchUp = new XoCatchUp(mDatabase);
+        for(IXoCatchUpListener listener: mCatchUpListeners) {
+            listener.onCatchUpStarted();
+        }
+    }
+
+    /**
+     * Leave catch-up mode, persisting what is left and reporting added messages
+     */
+    private void finishCatchUp() {
+        XoCatchUp catchUp;
+        synchronized (this) {
+            catchUp = mCatchUp;
+            if(catchUp == null) {
+                return;
+            }
+            mCatchUp = null;
+        }
+        Map<TalkClientContact, Integer> added = catchUp.finish();
+        for(IXoCatchUpListener listener: mCatchUpListeners) {
+            for(Map.Entry<TalkClientContact, Integer> entry: added.entrySet()) {
+                listener.onMessagesAdded(entry.getKey(), entry.getValue());
+            }
+            listener.onCatchUpFinished();
+        }
+        notifyUnseenResync(added.keySet(), !added.isEmpty());
+        if(!mUnseenListeners.isEmpty()) {
+            notifyUnseenMessages(!added.isEmpty());
+        }
+    }
+
+    /**
+     * Decrypt an incoming message before it is processed
+     *
+     * @return the decrypted content or null if the conversation is unknown
+     */
+    private DecryptedMessage predecryptMessage(TalkDelivery delivery, TalkMessage message) throws GeneralSecurityException, IOException, SQLException {
+        TalkClientContact contact;
+        String groupId = delivery.getGroupId();
+        if(groupId != null) {
+            contact = mDatabase.findContactByGroupId(groupId, false);
+        } else {
+            contact = mDatabase.findContactByClientId(message.getSenderId(), false);
+        }
+        if(contact == null) {
+            return null;
+        }
+        return decryptMessageContent(contact, delivery, message);
+    }
+
+    /**
+     * Wait for the result of predecryptMessage()
+     *
+     * @return the decrypted content, or null if the message has to be decrypted again
+     *         because predecryption failed or the group key changed in the meantime
+     */
+    private DecryptedMessage awaitDecryption(Future<DecryptedMessage> future, TalkClientContact contact) {
+        if(future == null) {
+            return null;
+        }
+        DecryptedMessage decrypted;
+        try {
+            decrypted = future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (ExecutionException e) {
+            LOG.debug("predecryption failed, retrying", e.getCause());
+            return null;
+        }
+        if(decrypted == null) {
+            return null;
+        }
+        if(contact.isGroup()) {
+            String groupKey = contact.getGroupKey();
+            if(groupKey == null ? decrypted.mGroupKey != null : !groupKey.equals(decrypted.mGroupKey)) {
+                LOG.debug("group key changed since predecryption, retrying");
+                return null;
+            }
+        }
+        return decrypted;
+    }
+
+    private void updateIncomingDelivery(String stripe, final TalkDelivery delivery, final TalkMessage message, Future<DecryptedMessage> predecrypted) {
         LOG.debug("updateIncomingDelivery(" + delivery.getMessageId() + ")");
         boolean newMessage = false;
         TalkClientContact groupContact = null;
@@ -2128,6 +3007,10 @@ public class XoClient implements JsonRpcConnection.Listener {
         try {
             String groupId = delivery.getGroupId();
             if(groupId != null) {
+                // group keys may still change until the members are synced
+                if(parkDelivery(delivery, message)) {
+                    return;
+                }
                 groupContact = mDatabase.findContactByGroupId(groupId, false);
                 if(groupContact == null) {
                     LOG.warn("incoming message in unknown group " + groupId);
@@ -2136,14 +3019,16 @@ public class XoClient implements JsonRpcConnection.Listener {
             }
             senderContact = mDatabase.findContactByClientId(message.getSenderId(), false);
             if(senderContact == null) {
+                if(parkDelivery(delivery, message)) {
+                    return;
+                }
                 LOG.warn("incoming message from unknown client " + message.getSenderId());
                 return;
             }
-            clientMessage = mDatabase.findMessageByMessageId(delivery.getMessageId(), false);
-            if(clientMessage == null) {
-                newMessage = true;
-                clientMessage = mDatabase.findMessageByMessageId(delivery.getMessageId(), true);
-            }
+            awaitUncommittedMessage(delivery.getMessageId());
+            // a new message is created together with the rest of the message in its unit of work
+            clientMessage = mDatabase.findOrCreateMessageByMessageId(delivery.getMessageId());
+            newMessage = clientMessage.getClientMessageId() == 0;
         } catch (SQLException e) {
             LOG.error("sql error", e);
             return;
@@ -2157,65 +3042,74 @@ public class XoClient implements JsonRpcConnection.Listener {
             clientMessage.setConversationContact(groupContact);
         }
 
-        boolean messageFailed = true;
         try {
-            decryptMessage(clientMessage, delivery, message);
+            DecryptedMessage decrypted = awaitDecryption(predecrypted, clientMessage.getConversationContact());
+            if(decrypted == null) {
+                decrypted = decryptMessageContent(clientMessage.getConversationContact(), delivery, message);
+            }
+            applyDecryptedMessage(clientMessage, message, decrypted);
 
             clientMessage.updateIncoming(delivery, message);
 
-            TalkClientDownload attachmentDownload = clientMessage.getAttachmentDownload();
+            mUncommittedMessages.add(delivery.getMessageId());
 
-            if(attachmentDownload != null) {
-                mDatabase.saveClientDownload(clientMessage.getAttachmentDownload());
-            }
-            mDatabase.saveMessage(clientMessage.getMessage());
-            mDatabase.saveDelivery(clientMessage.getIncomingDelivery());
-            mDatabase.saveClientMessage(clientMessage);
-
-            if(attachmentDownload != null) {
-                mTransferAgent.registerDownload(attachmentDownload);
-            }
-
-            for(IXoMessageListener listener: mMessageListeners) {
-                if(newMessage) {
-                    listener.onMessageAdded(clientMessage);
-                } else {
-                    listener.onMessageStateChanged(clientMessage);
-                }
+            XoCatchUp catchUp = mCatchUp;
+            if(catchUp != null && catchUp.add(clientMessage.getConversationContact(), newMessage,
+                    createIncomingMessageUnit(stripe, clientMessage, delivery, newMessage, false))) {
+                return;
             }
 
-            notifyUnseenMessages(newMessage);
-            messageFailed = false;
+            mDatabase.submitUnit(createIncomingMessageUnit(stripe, clientMessage, delivery, newMessage, true));
+            return;
         } catch (GeneralSecurityException e) {
         } catch (IOException e) {
         } catch (SQLException e) {
         }
-        if (!messageFailed) {
-            if(delivery.getState().equals(TalkDelivery.STATE_DELIVERING)) {
-                mExecutor.execute(new Runnable() {
-                    @Override
-                    public void run() {
-                        LOG.debug("confirming " + delivery.getMessageId());
-                        mServerRpc.deliveryConfirm(delivery.getMessageId());
-                    }
-                });
-            }
-        } else {
-            mExecutor.execute(new Runnable() {
-                @Override
-                public void run() {
-                    LOG.debug("aborting " + delivery.getMessageId());
-                    mServerRpc.deliveryAbort(delivery.getMessageId(),delivery.getReceiverId());
-                }
-            });
+        LOG.debug("aborting " + delivery.getMessageId());
+        mConfirmationQueue.abort(delivery.getMessageId(), delivery.getReceiverId());
+    }
+
+    /**
+     * Result of decrypting an incoming message
+     */
+    private static class DecryptedMessage {
+        /** Group key used for decryption, null for client messages */
+        String mGroupKey;
+        /** Decrypted body, empty if decryption was not possible */
+        String mText = "";
+        /** Decrypted attachment descriptor */
+        TalkAttachment mAttachment;
+        /** Message key, needed to decrypt the attachment */
+        byte[] mKey;
+
+        DecryptedMessage(String groupKey) {
+            mGroupKey = groupKey;
         }
     }
 
-    private void decryptMessage(TalkClientMessage clientMessage, TalkDelivery delivery, TalkMessage message) throws GeneralSecurityException, IOException, SQLException {
-        LOG.debug("decryptMessage()");
+    /**
+     * Add the decrypted content to a client message
+     */
+    private void applyDecryptedMessage(TalkClientMessage clientMessage, TalkMessage message, DecryptedMessage decrypted) {
+        clientMessage.setText(decrypted.mText);
+        if(decrypted.mAttachment != null) {
+            TalkClientDownload download = new TalkClientDownload();
+            download.initializeAsAttachment(decrypted.mAttachment, message.getMessageId(), decrypted.mKey);
+            clientMessage.setAttachmentDownload(download);
+        }
+    }
 
-        // contact (provides decryption context)
-        TalkClientContact contact = clientMessage.getConversationContact();
+    /**
+     * Decrypt the content of an incoming message
+     *
+     * This has no side effects on the client message and can
+     * be performed in parallel for several messages.
+     *
+     * @param contact providing the decryption context, the sender or the group
+     * @return the decrypted content, with empty text if there was no usable key
+     */
+    private DecryptedMessage decryptMessageContent(TalkClientContact contact, TalkDelivery delivery, TalkMessage message) throws GeneralSecurityException, IOException, SQLException {
+        LOG.debug("decryptMessage()");
 
         if (!message.getMessageTag().matches("[0-9a-fA-F]{8}-[0-9a-fA-F]{4}-[0-9a-fA-F]{4}-[0-9a-fA-F]{4}-[0-9a-fA-F]{12}")) {
             byte[] hmac = message.computeHMAC();
@@ -2228,8 +3122,7 @@ public class XoClient implements JsonRpcConnection.Listener {
         }
 
         // default message text
-        // LOG.debug("Setting message's default body to empty string");
-        clientMessage.setText("");
+        DecryptedMessage result = new DecryptedMessage(contact.isGroup() ? contact.getGroupKey() : null);
 
         // get various fields
         String keyId = delivery.getKeyId();
@@ -2244,18 +3137,19 @@ public class XoClient implements JsonRpcConnection.Listener {
             LOG.trace("decrypting using private key");
             // decrypt the provided key using our private key
             try {
-                TalkPrivateKey talkPrivateKey = null;
-                talkPrivateKey = mDatabase.findPrivateKeyByKeyId(keyId);
-                if(talkPrivateKey == null) {
-                    LOG.error("no private key for keyId " + keyId);
-                    return;
+                decryptedKey = mMessageKeyCache.get(keyId, keyCiphertext);
+                if(decryptedKey != null) {
+                    LOG.trace("using cached message key");
                 } else {
-                    PrivateKey privateKey = talkPrivateKey.getAsNative();
+                    PrivateKey privateKey = mDatabase.findNativePrivateKeyByKeyId(keyId);
                     if(privateKey == null) {
-                        LOG.error("could not decode private key");
-                        return;
+                        LOG.error("no usable private key for keyId " + keyId);
+                        return result;
                     } else {
                         decryptedKey = RSACryptor.decryptRSA(privateKey, Base64.decodeBase64(keyCiphertext.getBytes(Charset.forName("UTF-8"))));
+                        if(decryptedKey != null) {
+                            mMessageKeyCache.put(keyId, keyCiphertext, decryptedKey);
+                        }
                     }
                 }
             } catch (SQLException e) {
@@ -2268,12 +3162,12 @@ public class XoClient implements JsonRpcConnection.Listener {
         } else if(contact.isGroup()) {
             LOG.trace("decrypting using group key");
             // get the group key for decryption
-            String groupKey = contact.getGroupKey();
+            String groupKey = result.mGroupKey;
             if(groupKey == null) {
                 LOG.warn("no group key");
-                return;
+                return result;
             }
-            decryptedKey = Base64.decodeBase64(contact.getGroupKey().getBytes(Charset.forName("UTF-8")));
+            decryptedKey = Base64.decodeBase64(groupKey.getBytes(Charset.forName("UTF-8")));
         } else {
             LOG.error("don't know how to decrypt messages from contact of type " + contact.getContactType());
             throw new RuntimeException("don't know how to decrypt messages from contact of type " + contact.getContactType());
@@ -2282,7 +3176,7 @@ public class XoClient implements JsonRpcConnection.Listener {
         // check that we have a key
         if(decryptedKey == null) {
             LOG.error("could not determine decryption key");
-            return;
+            return result;
         }
 
         // apply salt if present
@@ -2290,7 +3184,7 @@ public class XoClient implements JsonRpcConnection.Listener {
             byte[] decodedSalt = Base64.decodeBase64(keySalt.getBytes(Charset.forName("UTF-8")));
             if(decodedSalt.length != decryptedKey.length) {
                 LOG.error("message salt has wrong size");
-                return;
+                return result;
             }
             for(int i = 0; i < decryptedKey.length; i++) {
                 decryptedKey[i] = (byte)(decryptedKey[i] ^ decodedSalt[i]);
@@ -2322,16 +3216,13 @@ public class XoClient implements JsonRpcConnection.Listener {
             throw e;
         }
 
-        // add decrypted information to message
+        // add decrypted information to result
         if (decryptedBody != null) {
-            //LOG.debug("Setting message's body to '" + decryptedBody + "' after decryption");
-            clientMessage.setText(decryptedBody);
-        }
-        if(decryptedAttachment != null) {
-            TalkClientDownload download = new TalkClientDownload();
-            download.initializeAsAttachment(decryptedAttachment, message.getMessageId(), decryptedKey);
-            clientMessage.setAttachmentDownload(download);
+            result.mText = decryptedBody;
         }
+        result.mAttachment = decryptedAttachment;
+        result.mKey = decryptedKey;
+        return result;
     }
 
     private void encryptMessage(TalkClientMessage clientMessage, TalkDelivery delivery, TalkMessage message) {
@@ -2364,7 +3255,7 @@ public class XoClient implements JsonRpcConnection.Listener {
                 throw new RuntimeException("no pubkey for encryption");
             }
             // retrieve native version of the key
-            PublicKey publicKey = talkPublicKey.getAsNative();
+            PublicKey publicKey = mDatabase.getKeyCache().getPublicKey(talkPublicKey);
             if(publicKey == null) {
                 throw new RuntimeException("could not get public key for encryption");
             }
@@ -2514,12 +3405,12 @@ public class XoClient implements JsonRpcConnection.Listener {
             LOG.error("updateClientPresence", e);
         }
         if(avatarDownload != null && wantDownload) {
-            mTransferAgent.requestDownload(avatarDownload);
+            requestDownloadAfterCommit(avatarDownload);
         }
 
         final TalkClientContact fContact = clientContact;
         if (fields == null || fields.contains(TalkPresence.FIELD_KEY_ID)) {
-            mExecutor.execute(new Runnable() {
+            mScheduler.execute(XoLaneScheduler.Lane.BACKGROUND, new Runnable() {
             @Override
             public void run() {
                 requestClientKey(fContact);
@@ -2527,9 +3418,14 @@ public class XoClient implements JsonRpcConnection.Listener {
         });
         }
 
-        for (IXoContactListener listener : mContactListeners) {
-            listener.onClientPresenceChanged(clientContact);
-        }
+        mDatabase.afterCommit(new Runnable() {
+            @Override
+            public void run() {
+                for (IXoContactListener listener : mContactListeners) {
+                    listener.onClientPresenceChanged(fContact);
+                }
+            }
+        });
     }
 
     private boolean updateAvatarDownload(TalkClientContact contact, String avatarUrl, String avatarId, Date avatarTimestamp) throws MalformedURLException {
@@ -2636,9 +3532,15 @@ public class XoClient implements JsonRpcConnection.Listener {
             LOG.error("SQL error", e);
         }
 
-        for (IXoContactListener listener : mContactListeners) {
-            listener.onClientRelationshipChanged(clientContact);
-        }
+        final TalkClientContact fContact = clientContact;
+        mDatabase.afterCommit(new Runnable() {
+            @Override
+            public void run() {
+                for (IXoContactListener listener : mContactListeners) {
+                    listener.onClientRelationshipChanged(fContact);
+                }
+            }
+        });
     }
 
     private void updateGroupPresence(TalkGroup group) {
@@ -2684,9 +3586,15 @@ public class XoClient implements JsonRpcConnection.Listener {
 
         LOG.info("updateGroupPresence(" + group.getGroupId() + ") - saved");
 
-        for (IXoContactListener listener : mContactListeners) {
-            listener.onGroupPresenceChanged(groupContact);
-        }
+        final TalkClientContact fContact = groupContact;
+        mDatabase.afterCommit(new Runnable() {
+            @Override
+            public void run() {
+                for (IXoContactListener listener : mContactListeners) {
+                    listener.onGroupPresenceChanged(fContact);
+                }
+            }
+        });
     }
 
     private void destroyNearbyGroup(TalkClientContact groupContact) {
@@ -2728,10 +3636,22 @@ public class XoClient implements JsonRpcConnection.Listener {
             LOG.error("SQL Error when saving avatar download", e);
         }
         if(avatarDownload != null) {
-            mTransferAgent.requestDownload(avatarDownload);
+            requestDownloadAfterCommit(avatarDownload);
         }
     }
 
+    /**
+     * Start a download once the current transaction, if any, has stored it
+     */
+    private void requestDownloadAfterCommit(final TalkClientDownload download) {
+        mDatabase.afterCommit(new Runnable() {
+            @Override
+            public void run() {
+                mTransferAgent.requestDownload(download);
+            }
+        });
+    }
+
     public void updateGroupMember(TalkGroupMember member) {
         updateGroupMemberHere(member);
     }
@@ -2839,14 +3759,21 @@ public class XoClient implements JsonRpcConnection.Listener {
             }
         }
 
-        for (IXoContactListener listener : mContactListeners) {
-            listener.onGroupMembershipChanged(groupContact);
-        }
+        // member lists are applied in one big transaction during sync
+        final TalkClientContact fGroupContact = groupContact;
+        mDatabase.afterCommit(new Runnable() {
+            @Override
+            public void run() {
+                for (IXoContactListener listener : mContactListeners) {
+                    listener.onGroupMembershipChanged(fGroupContact);
+                }
+            }
+        });
 
         // TODO: needGroupUpdate is never changed, do we mean newGroup or newClient instead ??
         if (needGroupUpdate) {
             LOG.debug("we now require a group update to retrieve presences");
-            mExecutor.execute(new Runnable() {
+            mScheduler.execute(XoLaneScheduler.Lane.SYNC, new Runnable() {
                 @Override
                 public void run() {
                     try {
@@ -2874,20 +3801,15 @@ public class XoClient implements JsonRpcConnection.Listener {
             return;
         }
         try {
-            TalkPrivateKey talkPrivateKey = mDatabase.findPrivateKeyByKeyId(keyId);
-            if(talkPrivateKey == null) {
-                LOG.error("no private key for keyId " + keyId);
+            PrivateKey privateKey = mDatabase.findNativePrivateKeyByKeyId(keyId);
+            if(privateKey == null) {
+                LOG.error("no usable private key for keyId " + keyId);
             } else {
-                PrivateKey privateKey = talkPrivateKey.getAsNative();
-                if(privateKey == null) {
-                    LOG.error("could not decode private key");
-                } else {
-                    byte[] rawEncryptedGroupKey = Base64.decodeBase64(encryptedGroupKey.getBytes(Charset.forName("UTF-8")));
-                    byte[] rawGroupKey = RSACryptor.decryptRSA(privateKey, rawEncryptedGroupKey);
-                    LOG.debug("successfully decrypted group key");
-                    String groupKey = new String(Base64.encodeBase64(rawGroupKey));
-                    group.setGroupKey(groupKey);
-                }
+                byte[] rawEncryptedGroupKey = Base64.decodeBase64(encryptedGroupKey.getBytes(Charset.forName("UTF-8")));
+                byte[] rawGroupKey = RSACryptor.decryptRSA(privateKey, rawEncryptedGroupKey);
+                LOG.debug("successfully decrypted group key");
+                String groupKey = new String(Base64.encodeBase64(rawGroupKey));
+                group.setGroupKey(groupKey);
             }
         } catch (SQLException e) {
             LOG.error("SQL error", e);
@@ -2963,7 +3885,7 @@ public class XoClient implements JsonRpcConnection.Listener {
 
     public void handleSmsUrl(final String sender, final String body, final String urlString) {
         LOG.debug("handleSmsUrl(" + sender + "," + urlString + ")");
-        mExecutor.execute(new Runnable() {
+        mScheduler.execute(XoLaneScheduler.Lane.INTERACTIVE, new Runnable() {
             @Override
             public void run() {
                 // check if the url is for a pairing token
@@ -2998,7 +3920,7 @@ public class XoClient implements JsonRpcConnection.Listener {
     }
 
     public void useSmsToken(final TalkClientSmsToken token) {
-        mExecutor.execute(new Runnable() {
+        mScheduler.execute(XoLaneScheduler.Lane.INTERACTIVE, new Runnable() {
             @Override
             public void run() {
                 performTokenPairing(token.getToken());
@@ -3013,7 +3935,7 @@ public class XoClient implements JsonRpcConnection.Listener {
     }
 
     public void rejectSmsToken(final TalkClientSmsToken token) {
-        mExecutor.execute(new Runnable() {
+        mScheduler.execute(XoLaneScheduler.Lane.INTERACTIVE, new Runnable() {
             @Override
             public void run() {
                 try {
@@ -3028,16 +3950,17 @@ public class XoClient implements JsonRpcConnection.Listener {
 
     public void markAsSeen(final TalkClientMessage message) {
         resetIdle();
-        mExecutor.execute(new Runnable() {
+        mScheduler.execute(XoLaneScheduler.Lane.INTERACTIVE, new Runnable() {
             @Override
             public void run() {
+                boolean wasUnseen = mDatabase.isUnseen(message);
                 message.markAsSeen();
                 try {
                     mDatabase.saveClientMessage(message);
                 } catch (SQLException e) {
                     LOG.error("SQL error", e);
                 }
-                notifyUnseenMessages(false);
+                notifyUnseenChange(message, wasUnseen, false);
             }
         });
     }
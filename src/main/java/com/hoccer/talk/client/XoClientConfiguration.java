@@ -12,6 +12,61 @@ public class XoClientConfiguration {
 
     /** Transfer executor thread count */
     public static final int TRANSFER_THREADS = 2;
+    /** Delay after which coalesced transfer progress is written (msecs) */
+    public static final long TRANSFER_PROGRESS_SAVE_DELAY = 2000;
+
+    /** Maximum number of RPC requests in flight on the connection */
+    public static final int RPC_MAX_IN_FLIGHT = 8;
+    /** Time idle RPC threads are kept around (seconds) */
+    public static final int RPC_THREAD_KEEPALIVE = 60;
+
+    /** Number of tasks queued in a scheduler lane before it counts as overflowing */
+    public static final int LANE_QUEUE_CAPACITY = 256;
+    /** Time an idle lane thread is kept alive (seconds) */
+    public static final int LANE_THREAD_KEEPALIVE = 60;
+
+    /** Number of delivery requests kept in flight while draining the outbox */
+    public static final int DELIVERY_WINDOW = 8;
+    /** Number of outgoing messages loaded per delivery run */
+    public static final int DELIVERY_PAGE_SIZE = 64;
+
+    /** Number of queued delivery confirmations that triggers an immediate flush */
+    public static final int CONFIRMATION_BATCH_SIZE = 32;
+    /** Time delivery confirmations are collected before they are flushed (msecs) */
+    public static final int CONFIRMATION_FLUSH_DELAY = 250;
+    /** Time before confirmations that failed to send are flushed again (msecs) */
+    public static final int CONFIRMATION_RETRY_DELAY = 5000;
+
+    /** Number of threads decrypting incoming messages in parallel */
+    public static final int DECRYPT_THREADS = Math.max(1, Runtime.getRuntime().availableProcessors());
+    /** Time idle decryption threads are kept around (seconds) */
+    public static final int DECRYPT_THREAD_KEEPALIVE = 60;
+
+    /** Time writes are collected for a shared commit (msecs) */
+    public static final int WRITE_COMMIT_WINDOW = 20;
+    /** Number of pending units of work that triggers an immediate commit */
+    public static final int WRITE_BATCH_SIZE = 50;
+
+    /** Number of queued incoming deliveries that starts a catch-up */
+    public static final int CATCHUP_THRESHOLD = 50;
+    /** Number of incoming messages persisted per transaction while catching up */
+    public static final int CATCHUP_BATCH_SIZE = 100;
+
+    /** Number of decoded public and private keys kept in memory each */
+    public static final int KEY_CACHE_SIZE = 64;
+    /** Number of unwrapped message keys kept in memory */
+    public static final int MESSAGE_KEY_CACHE_SIZE = 256;
+    /** Minimum number of message ids the message id filter is sized for */
+    public static final int MESSAGE_ID_FILTER_MIN_CAPACITY = 4096;
+
+    /** Overlap between incremental syncs to cover clock uncertainty (msecs) */
+    public static final long SYNC_WATERMARK_MARGIN = 5 * 60 * 1000;
+    /** Age of a sync watermark after which a full sync is performed (msecs) */
+    public static final long SYNC_WATERMARK_MAX_AGE = 30L * 24 * 3600 * 1000;
+    /** Number of synced items applied per database transaction */
+    public static final int SYNC_PAGE_SIZE = 50;
+    /** Age of an unfinished sync round after which it is restarted instead of resumed (msecs) */
+    public static final long SYNC_CHECKPOINT_MAX_AGE = 10 * 60 * 1000;
 
     /** Connection timeout (seconds) */
     public static final int CONNECT_TIMEOUT = 15;
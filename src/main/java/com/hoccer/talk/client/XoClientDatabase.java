@@ -1,30 +1,55 @@
 package com.hoccer.talk.client;
 
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.hoccer.talk.client.model.TalkClientContact;
+import com.hoccer.talk.client.model.TalkClientConversation;
+import com.hoccer.talk.client.model.TalkClientDeliveryConfirmation;
 import com.hoccer.talk.client.model.TalkClientDownload;
 import com.hoccer.talk.client.model.TalkClientMembership;
 import com.hoccer.talk.client.model.TalkClientMessage;
+import com.hoccer.talk.client.model.TalkClientMessageSummary;
+import com.hoccer.talk.client.model.TalkClientSchemaVersion;
 import com.hoccer.talk.client.model.TalkClientSelf;
 import com.hoccer.talk.client.model.TalkClientSmsToken;
+import com.hoccer.talk.client.model.TalkClientSyncState;
 import com.hoccer.talk.client.model.TalkClientUpload;
 import com.hoccer.talk.model.*;
+import com.j256.ormlite.dao.BaseDaoImpl;
 import com.j256.ormlite.dao.Dao;
 import com.j256.ormlite.dao.GenericRawResults;
 import com.j256.ormlite.field.DataType;
+import com.j256.ormlite.field.FieldType;
+import com.j256.ormlite.misc.TransactionManager;
 import com.j256.ormlite.stmt.DeleteBuilder;
 import com.j256.ormlite.stmt.QueryBuilder;
 import com.j256.ormlite.stmt.UpdateBuilder;
 import com.j256.ormlite.stmt.Where;
 
 import com.j256.ormlite.support.ConnectionSource;
+import com.j256.ormlite.table.DatabaseTableConfig;
+import com.j256.ormlite.table.TableInfo;
 import com.j256.ormlite.table.TableUtils;
 import org.apache.log4j.Logger;
 
+import java.security.PrivateKey;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.Vector;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 
 public class XoClientDatabase {
 
@@ -42,6 +67,7 @@ public class XoClientDatabase {
     Dao<TalkClientMembership, Integer> mClientMemberships;
 
     Dao<TalkClientMessage, Integer> mClientMessages;
+    Dao<TalkClientMessageSummary, Integer> mClientMessageSummaries;
     Dao<TalkMessage, String> mMessages;
     Dao<TalkDelivery, Long> mDeliveries;
 
@@ -53,6 +79,112 @@ public class XoClientDatabase {
 
     Dao<TalkClientSmsToken, Integer> mSmsTokens;
 
+    Dao<TalkClientDeliveryConfirmation, Integer> mDeliveryConfirmations;
+
+    Dao<TalkClientSyncState, String> mSyncStates;
+
+    Dao<TalkClientSchemaVersion, String> mSchemaVersions;
+
+    Dao<TalkClientConversation, Integer> mConversations;
+
+    /** Id column of the delivery table, referenced by outgoing messages */
+    String mDeliveryIdColumn;
+
+    /** Schema component for indexes created by {@link #migrateIndexes()} */
+    private static final String SCHEMA_INDEXES = "indexes";
+
+    /** Current version of the index definitions */
+    public static final int INDEX_VERSION = 4;
+
+    /** Schema component for conversation summaries built by {@link #rebuildConversations()} */
+    private static final String SCHEMA_CONVERSATIONS = "conversations";
+
+    /** Current version of the conversation summaries */
+    public static final int CONVERSATION_VERSION = 1;
+
+    /**
+     * Indexes on hot query columns
+     *
+     * Names match those ORMLite derives from the model annotations,
+     * so databases created fresh and migrated ones end up identical.
+     * Append new definitions with a higher version and raise INDEX_VERSION.
+     */
+    private static final IndexDefinition[] INDEXES = new IndexDefinition[] {
+        new IndexDefinition(1, TalkClientMessage.class, "clientMessage_messageId_idx", "messageId"),
+        new IndexDefinition(1, TalkClientMessage.class, "clientMessage_messageTag_idx", "messageTag"),
+        new IndexDefinition(1, TalkClientMessage.class, "clientMessage_seen_idx", "seen"),
+        new IndexDefinition(1, TalkClientMessage.class, "clientMessage_conversation_idx", "conversationContact_id, timestamp"),
+        new IndexDefinition(1, TalkClientContact.class, "clientContact_clientId_idx", "clientId"),
+        new IndexDefinition(1, TalkClientContact.class, "clientContact_groupId_idx", "groupId"),
+        new IndexDefinition(1, TalkClientContact.class, "clientContact_groupTag_idx", "groupTag"),
+        new IndexDefinition(1, TalkClientContact.class, "clientContact_type_idx", "contactType, deleted"),
+        new IndexDefinition(1, TalkClientMembership.class, "clientMembership_group_idx", "groupContact_id, clientContact_id"),
+        new IndexDefinition(1, TalkDelivery.class, "delivery_state_idx", TalkDelivery.FIELD_STATE),
+        new IndexDefinition(2, TalkClientMessage.class, "clientMessage_outgoingDelivery_id_idx", "outgoingDelivery_id"),
+    };
+
+    /**
+     * Indexes that are no longer needed, dropped when migrating past their version
+     *
+     * clientMessage_history_idx duplicated clientMessage_conversation_idx,
+     * which already ends in the rowid clientMessageId.
+     */
+    private static final IndexDefinition[] DROPPED_INDEXES = new IndexDefinition[] {
+        new IndexDefinition(4, TalkClientMessage.class, "clientMessage_history_idx", null),
+    };
+
+    /**
+     * Group of writes that is committed atomically
+     *
+     * Units submitted for group commit are performed together with
+     * other pending units in one transaction. The callbacks run on the
+     * writer thread in submission order after the outcome is known,
+     * so they should hand anything slow off to other threads.
+     *
+     * If the group fails, each unit is retried in its own transaction.
+     * In-memory state changed by a rolled back perform() is restored
+     * by runInTransaction() before the retry.
+     */
+    public static abstract class UnitOfWork {
+        /** Perform the writes, called inside the transaction */
+        public abstract void perform() throws SQLException;
+        /** Called after the writes have been committed */
+        public void onCommit() {
+        }
+        /** Called if the writes could not be committed */
+        public void onFailure(SQLException e) {
+        }
+    }
+
+    /** Thread performing group commits */
+    ScheduledExecutorService mWriter;
+
+    /** Units waiting for the next group commit */
+    List<UnitOfWork> mPendingUnits = new ArrayList<UnitOfWork>();
+
+    /** Scheduled group commit, null if none is pending */
+    ScheduledFuture<?> mCommitFuture;
+
+    /** Ids of all stored messages, answers most lookups for unknown messages */
+    volatile XoBloomFilter mMessageIdFilter;
+
+    /** Decoded forms of public and private keys */
+    XoKeyCache mKeyCache = new XoKeyCache(XoClientConfiguration.KEY_CACHE_SIZE);
+
+    /** Ids of unseen messages by id of their conversation contact */
+    Map<Integer, Set<Integer>> mUnseen = new HashMap<Integer, Set<Integer>>();
+
+    /** Total number of unseen messages */
+    int mUnseenTotal = 0;
+
+    /** Actions undoing in-memory changes made by the transaction of the current thread */
+    ThreadLocal<List<Runnable>> mRollbackActions = new ThreadLocal<List<Runnable>>();
+
+    /** Actions to run once the transaction of the current thread has been committed */
+    ThreadLocal<List<Runnable>> mCommitActions = new ThreadLocal<List<Runnable>>();
+
+    /** Set when the message id filter may contain ids of rolled back messages */
+    volatile boolean mMessageIdFilterStale = false;
 
     public static void createTables(ConnectionSource cs) throws SQLException {
         TableUtils.createTable(cs, TalkClientContact.class);
@@ -76,13 +208,36 @@ public class XoClientDatabase {
         TableUtils.createTable(cs, TalkClientUpload.class);
 
         TableUtils.createTable(cs, TalkClientSmsToken.class);
+
+        TableUtils.createTable(cs, TalkClientDeliveryConfirmation.class);
+        TableUtils.createTable(cs, TalkClientSyncState.class);
+        TableUtils.createTable(cs, TalkClientSchemaVersion.class);
+        TableUtils.createTable(cs, TalkClientConversation.class);
+    }
+
+    /**
+     * Create tables that were added after the initial schema
+     *
+     * This is safe to call on every startup.
+     */
+    public static void createMissingTables(ConnectionSource cs) throws SQLException {
+        TableUtils.createTableIfNotExists(cs, TalkClientDeliveryConfirmation.class);
+        TableUtils.createTableIfNotExists(cs, TalkClientSyncState.class);
+        TableUtils.createTableIfNotExists(cs, TalkClientSchemaVersion.class);
+        TableUtils.createTableIfNotExists(cs, TalkClientConversation.class);
     }
 
     public XoClientDatabase(IXoClientDatabaseBackend backend) {
         mBackend = backend;
+        ThreadFactoryBuilder tfb = new ThreadFactoryBuilder();
+        tfb.setNameFormat("db-writer-%d");
+        tfb.setDaemon(true);
+        mWriter = Executors.newSingleThreadScheduledExecutor(tfb.build());
     }
 
     public void initialize() throws SQLException {
+        createMissingTables(mBackend.getConnectionSource());
+
         mClientContacts = mBackend.getDao(TalkClientContact.class);
         mClientSelfs = mBackend.getDao(TalkClientSelf.class);
         mPresences = mBackend.getDao(TalkPresence.class);
@@ -93,8 +248,11 @@ public class XoClientDatabase {
         mClientMemberships = mBackend.getDao(TalkClientMembership.class);
 
         mClientMessages = mBackend.getDao(TalkClientMessage.class);
+        mClientMessageSummaries = mBackend.getDao(TalkClientMessageSummary.class);
         mMessages = mBackend.getDao(TalkMessage.class);
         mDeliveries = mBackend.getDao(TalkDelivery.class);
+        mDeliveryIdColumn = new TableInfo<TalkDelivery, Long>(mBackend.getConnectionSource(), null, TalkDelivery.class)
+                .getIdField().getColumnName();
 
         mPublicKeys = mBackend.getDao(TalkKey.class);
         mPrivateKeys = mBackend.getDao(TalkPrivateKey.class);
@@ -103,6 +261,561 @@ public class XoClientDatabase {
         mClientUploads = mBackend.getDao(TalkClientUpload.class);
 
         mSmsTokens = mBackend.getDao(TalkClientSmsToken.class);
+
+        mDeliveryConfirmations = mBackend.getDao(TalkClientDeliveryConfirmation.class);
+
+        mSyncStates = mBackend.getDao(TalkClientSyncState.class);
+        mSchemaVersions = mBackend.getDao(TalkClientSchemaVersion.class);
+        mConversations = mBackend.getDao(TalkClientConversation.class);
+
+        migrateIndexes();
+
+        rebuildUnseenIndex();
+        rebuildMessageIdFilter();
+
+        if(getSchemaVersion(SCHEMA_CONVERSATIONS) < CONVERSATION_VERSION) {
+            rebuildConversations();
+            setSchemaVersion(SCHEMA_CONVERSATIONS, CONVERSATION_VERSION);
+        }
+    }
+
+    /**
+     * Create indexes added and drop indexes removed since the recorded index version
+     */
+    private void migrateIndexes() throws SQLException {
+        int version = getSchemaVersion(SCHEMA_INDEXES);
+        if(version >= INDEX_VERSION) {
+            return;
+        }
+        LOG.info("migrating indexes from version " + version + " to " + INDEX_VERSION);
+        for(IndexDefinition index: INDEXES) {
+            if(index.mVersion > version) {
+                LOG.debug("creating index " + index.mName);
+                mSchemaVersions.executeRawNoArgs(index.getCreateStatement());
+            }
+        }
+        for(IndexDefinition index: DROPPED_INDEXES) {
+            if(index.mVersion > version) {
+                LOG.debug("dropping index " + index.mName);
+                mSchemaVersions.executeRawNoArgs(index.getDropStatement());
+            }
+        }
+        setSchemaVersion(SCHEMA_INDEXES, INDEX_VERSION);
+    }
+
+    private int getSchemaVersion(String component) throws SQLException {
+        TalkClientSchemaVersion version = mSchemaVersions.queryForId(component);
+        return version == null ? 0 : version.getVersion();
+    }
+
+    private void setSchemaVersion(String component, int version) throws SQLException {
+        TalkClientSchemaVersion schemaVersion = new TalkClientSchemaVersion(component);
+        schemaVersion.setVersion(version);
+        mSchemaVersions.createOrUpdate(schemaVersion);
+    }
+
+    /**
+     * Build the summaries of all conversations from their messages
+     */
+    private void rebuildConversations() throws SQLException {
+        LOG.info("building conversation summaries");
+        final List<TalkClientContact> contacts = mClientContacts.queryForAll();
+        runInTransaction(new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                for(TalkClientContact contact: contacts) {
+                    int contactId = contact.getClientContactId();
+                    TalkClientConversation conversation = new TalkClientConversation(contactId);
+                    TalkClientMessage latest = queryLatestMessageByContactId(contactId);
+                    if(latest != null) {
+                        conversation.updateLatestMessage(latest);
+                    }
+                    conversation.setUnseenCount(getUnseenCount(contactId));
+                    mConversations.createOrUpdate(conversation);
+                }
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Bring the summary of the conversation of the given message up to date
+     *
+     * Must run after the unseen index has been updated for the message.
+     */
+    private void updateConversation(TalkClientMessage message) throws SQLException {
+        TalkClientContact contact = message.getConversationContact();
+        if(contact == null) {
+            return;
+        }
+        int contactId = contact.getClientContactId();
+        boolean changed = false;
+        TalkClientConversation conversation = mConversations.queryForId(contactId);
+        if(conversation == null) {
+            conversation = new TalkClientConversation(contactId);
+            changed = true;
+        }
+        if(conversation.updateLatestMessage(message)) {
+            changed = true;
+        }
+        int unseenCount = getUnseenCount(contactId);
+        if(conversation.getUnseenCount() != unseenCount) {
+            conversation.setUnseenCount(unseenCount);
+            changed = true;
+        }
+        if(changed) {
+            mConversations.createOrUpdate(conversation);
+        }
+    }
+
+    private static class IndexDefinition {
+        int mVersion;
+        Class<?> mTable;
+        String mName;
+        String mColumns;
+
+        IndexDefinition(int version, Class<?> table, String name, String columns) {
+            mVersion = version;
+            mTable = table;
+            mName = name;
+            mColumns = columns;
+        }
+
+        String getCreateStatement() {
+            return "CREATE INDEX IF NOT EXISTS " + mName
+                    + " ON " + DatabaseTableConfig.extractTableName(mTable) + " (" + mColumns + ")";
+        }
+
+        String getDropStatement() {
+            return "DROP INDEX IF EXISTS " + mName;
+        }
+    }
+
+    /**
+     * Load the ids of all stored messages into a fresh message id filter
+     *
+     * The filter is sized with room for growth and rebuilt
+     * once more ids have been added than it was sized for.
+     */
+    private synchronized void rebuildMessageIdFilter() throws SQLException {
+        long count = mClientMessages.countOf();
+        int capacity = (int)Math.max(count * 4, XoClientConfiguration.MESSAGE_ID_FILTER_MIN_CAPACITY);
+        XoBloomFilter filter = new XoBloomFilter(capacity);
+        GenericRawResults<Object[]> results = mClientMessages.queryRaw(
+                "select messageId from clientMessage where messageId is not null",
+                new DataType[]{DataType.STRING});
+        try {
+            for(Object[] row: results) {
+                filter.add((String)row[0]);
+            }
+        } finally {
+            results.close();
+        }
+        LOG.debug("message id filter: " + count + " messages, capacity " + capacity);
+        mMessageIdFilter = filter;
+    }
+
+    private void addMessageId(String messageId) throws SQLException {
+        if(messageId != null) {
+            mMessageIdFilter.add(messageId);
+            // ids can not be removed from the filter, it is rebuilt instead
+            onRollback(new Runnable() {
+                @Override
+                public void run() {
+                    mMessageIdFilterStale = true;
+                }
+            });
+            if(mMessageIdFilter.isOverloaded()) {
+                rebuildMessageIdFilter();
+            }
+        }
+    }
+
+    /**
+     * @return false if no message with the given id is stored
+     */
+    private boolean mightHaveMessageId(String messageId) {
+        XoBloomFilter filter = mMessageIdFilter;
+        return filter == null || messageId == null || filter.mightContain(messageId);
+    }
+
+    /**
+     * Load the ids of all unseen messages into the unseen index
+     */
+    private void rebuildUnseenIndex() throws SQLException {
+        GenericRawResults<Object[]> results = mClientMessages.queryRaw(
+                "select conversationContact_id, clientMessageId from clientMessage where seen = 0",
+                new DataType[]{DataType.INTEGER_OBJ, DataType.INTEGER});
+        try {
+            synchronized (mUnseen) {
+                mUnseen.clear();
+                mUnseenTotal = 0;
+                for(Object[] row: results) {
+                    Integer contactId = (Integer)row[0];
+                    if(contactId != null) {
+                        addUnseen(contactId, (Integer)row[1]);
+                    }
+                }
+                LOG.debug("unseen index: " + mUnseenTotal + " messages in " + mUnseen.size() + " conversations");
+            }
+        } finally {
+            results.close();
+        }
+    }
+
+    private boolean addUnseen(int contactId, int clientMessageId) {
+        Set<Integer> ids = mUnseen.get(contactId);
+        if(ids == null) {
+            ids = new HashSet<Integer>();
+            mUnseen.put(contactId, ids);
+        }
+        if(ids.add(clientMessageId)) {
+            mUnseenTotal++;
+            return true;
+        }
+        return false;
+    }
+
+    private boolean removeUnseen(int contactId, int clientMessageId) {
+        Set<Integer> ids = mUnseen.get(contactId);
+        if(ids != null && ids.remove(clientMessageId)) {
+            if(ids.isEmpty()) {
+                mUnseen.remove(contactId);
+            }
+            mUnseenTotal--;
+            return true;
+        }
+        return false;
+    }
+
+    private void updateUnseenIndex(TalkClientMessage message) {
+        TalkClientContact conversation = message.getConversationContact();
+        if(conversation == null) {
+            return;
+        }
+        final int contactId = conversation.getClientContactId();
+        final int clientMessageId = message.getClientMessageId();
+        synchronized (mUnseen) {
+            if(message.isSeen()) {
+                if(removeUnseen(contactId, clientMessageId)) {
+                    onRollback(new Runnable() {
+                        @Override
+                        public void run() {
+                            synchronized (mUnseen) {
+                                addUnseen(contactId, clientMessageId);
+                            }
+                        }
+                    });
+                }
+            } else {
+                if(addUnseen(contactId, clientMessageId)) {
+                    onRollback(new Runnable() {
+                        @Override
+                        public void run() {
+                            synchronized (mUnseen) {
+                                removeUnseen(contactId, clientMessageId);
+                            }
+                        }
+                    });
+                }
+            }
+        }
+    }
+
+    /**
+     * @return true if the message is unseen according to the unseen index
+     */
+    public boolean isUnseen(TalkClientMessage message) {
+        TalkClientContact conversation = message.getConversationContact();
+        if(conversation == null) {
+            return false;
+        }
+        synchronized (mUnseen) {
+            Set<Integer> ids = mUnseen.get(conversation.getClientContactId());
+            return ids != null && ids.contains(message.getClientMessageId());
+        }
+    }
+
+    /**
+     * @return number of unseen messages in the given conversation, answered from the unseen index
+     */
+    public int getUnseenCount(int contactId) {
+        synchronized (mUnseen) {
+            Set<Integer> ids = mUnseen.get(contactId);
+            return ids == null ? 0 : ids.size();
+        }
+    }
+
+    /**
+     * @return number of unseen messages in all conversations, answered from the unseen index
+     */
+    public int getUnseenCount() {
+        synchronized (mUnseen) {
+            return mUnseenTotal;
+        }
+    }
+
+    /**
+     * @return number of unseen messages by conversation contact id
+     */
+    public Map<Integer, Integer> getUnseenCounts() {
+        Map<Integer, Integer> counts = new HashMap<Integer, Integer>();
+        synchronized (mUnseen) {
+            for(Map.Entry<Integer, Set<Integer>> entry: mUnseen.entrySet()) {
+                counts.put(entry.getKey(), entry.getValue().size());
+            }
+        }
+        return counts;
+    }
+
+    /**
+     * Run the given callable in a single database transaction
+     *
+     * The transaction is rolled back if the callable throws.
+     *
+     * The database monitor is held for the whole transaction. Synchronized
+     * methods of this class use the connection while holding the monitor,
+     * so taking it first keeps the lock order the same on all threads.
+     *
+     * On rollback, in-memory state changed by the transaction is restored:
+     * the unseen index, the message id filter and the generated ids of
+     * created entities.
+     *
+     * Actions registered with afterCommit() run after the outermost
+     * transaction has been committed and the monitor has been released.
+     */
+    public <T> T runInTransaction(Callable<T> callable) throws SQLException {
+        T result;
+        List<Runnable> committed = null;
+        synchronized (this) {
+            List<Runnable> outerActions = mRollbackActions.get();
+            List<Runnable> outerCommitActions = mCommitActions.get();
+            List<Runnable> actions = new ArrayList<Runnable>();
+            List<Runnable> commitActions = new ArrayList<Runnable>();
+            mRollbackActions.set(actions);
+            mCommitActions.set(commitActions);
+            try {
+                result = TransactionManager.callInTransaction(mBackend.getConnectionSource(), callable);
+                if(outerActions != null) {
+                    // undone or committed together with the enclosing transaction
+                    outerActions.addAll(actions);
+                    outerCommitActions.addAll(commitActions);
+                } else {
+                    committed = commitActions;
+                }
+            } catch (SQLException e) {
+                for(int i = actions.size() - 1; i >= 0; i--) {
+                    actions.get(i).run();
+                }
+                if(mMessageIdFilterStale) {
+                    mMessageIdFilterStale = false;
+                    try {
+                        rebuildMessageIdFilter();
+                    } catch (SQLException fe) {
+                        LOG.error("SQL error", fe);
+                    }
+                }
+                throw e;
+            } finally {
+                if(outerActions == null) {
+                    mRollbackActions.remove();
+                    mCommitActions.remove();
+                } else {
+                    mRollbackActions.set(outerActions);
+                    mCommitActions.set(outerCommitActions);
+                }
+            }
+        }
+        if(committed != null) {
+            for(Runnable action: committed) {
+                try {
+                    action.run();
+                } catch (RuntimeException e) {
+                    LOG.error("error in commit action", e);
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Run the given callable in the transaction of the current thread
+     *
+     * Starts a transaction only if the thread is not in one already,
+     * which saves a savepoint for every nested call.
+     */
+    private <T> T runInCurrentTransaction(Callable<T> callable) throws SQLException {
+        if(mRollbackActions.get() == null) {
+            return runInTransaction(callable);
+        }
+        try {
+            return callable.call();
+        } catch (SQLException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new SQLException(e);
+        }
+    }
+
+    /**
+     * Run an action once the current transaction has been committed
+     *
+     * Meant for listener callbacks, which must neither see uncommitted
+     * state nor run under the database monitor. The action is dropped
+     * if the transaction rolls back. Outside of transactions it runs
+     * right away.
+     */
+    public void afterCommit(Runnable action) {
+        List<Runnable> actions = mCommitActions.get();
+        if(actions == null) {
+            action.run();
+        } else {
+            actions.add(action);
+        }
+    }
+
+    /**
+     * Register an action undoing an in-memory change if the current transaction is rolled back
+     *
+     * Does nothing outside of transactions.
+     */
+    private void onRollback(Runnable action) {
+        List<Runnable> actions = mRollbackActions.get();
+        if(actions != null) {
+            actions.add(action);
+        }
+    }
+
+    /**
+     * Create or update an entity
+     *
+     * If the entity is created in a transaction that is rolled back,
+     * its generated id is reset. Otherwise saving it again would
+     * update whichever row reuses the id.
+     */
+    private <T, ID> void saveEntity(Dao<T, ID> dao, final T data) throws SQLException {
+        final ID previousId = dao.extractId(data);
+        Dao.CreateOrUpdateStatus status = dao.createOrUpdate(data);
+        if(status.isCreated() && dao instanceof BaseDaoImpl) {
+            final FieldType idField = ((BaseDaoImpl<T, ID>)dao).getTableInfo().getIdField();
+            if(idField != null && idField.isGeneratedId()) {
+                onRollback(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            idField.assignField(data, previousId, false, null);
+                        } catch (SQLException e) {
+                            LOG.error("SQL error", e);
+                        }
+                    }
+                });
+            }
+        }
+    }
+
+    /**
+     * Submit a unit of work for group commit
+     *
+     * The unit is committed together with other units submitted within
+     * WRITE_COMMIT_WINDOW, or earlier when WRITE_BATCH_SIZE units are pending.
+     */
+    public void submitUnit(UnitOfWork unit) {
+        synchronized (mPendingUnits) {
+            mPendingUnits.add(unit);
+            scheduleCommit(mPendingUnits.size() >= XoClientConfiguration.WRITE_BATCH_SIZE ? 0 : XoClientConfiguration.WRITE_COMMIT_WINDOW);
+        }
+    }
+
+    /**
+     * Submit units of work to be committed together without delay
+     */
+    public void submitUnits(List<UnitOfWork> units) {
+        synchronized (mPendingUnits) {
+            mPendingUnits.addAll(units);
+            scheduleCommit(0);
+        }
+    }
+
+    /**
+     * Wait until all units submitted so far have been committed or failed
+     */
+    public void awaitUnits() {
+        try {
+            mWriter.submit(new Runnable() {
+                @Override
+                public void run() {
+                    commitPendingUnits();
+                }
+            }).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            LOG.error("error committing units", e.getCause());
+        }
+    }
+
+    private void scheduleCommit(long delay) {
+        if(mCommitFuture != null) {
+            if(delay > 0 || mCommitFuture.getDelay(TimeUnit.MILLISECONDS) <= 0) {
+                return;
+            }
+            mCommitFuture.cancel(false);
+        }
+        mCommitFuture = mWriter.schedule(new Runnable() {
+            @Override
+            public void run() {
+                commitPendingUnits();
+            }
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+
+    private void commitPendingUnits() {
+        final List<UnitOfWork> units;
+        synchronized (mPendingUnits) {
+            mCommitFuture = null;
+            if(mPendingUnits.isEmpty()) {
+                return;
+            }
+            units = mPendingUnits;
+            mPendingUnits = new ArrayList<UnitOfWork>();
+        }
+        try {
+            runInTransaction(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    for(UnitOfWork unit: units) {
+                        unit.perform();
+                    }
+                    return null;
+                }
+            });
+        } catch (SQLException e) {
+            LOG.error("SQL error in group commit of " + units.size() + " units, committing separately", e);
+            for(UnitOfWork unit: units) {
+                commitUnit(unit);
+            }
+            return;
+        }
+        for(UnitOfWork unit: units) {
+            unit.onCommit();
+        }
+    }
+
+    private void commitUnit(final UnitOfWork unit) {
+        try {
+            runInTransaction(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    unit.perform();
+                    return null;
+                }
+            });
+        } catch (SQLException e) {
+            LOG.error("SQL error", e);
+            unit.onFailure(e);
+            return;
+        }
+        unit.onCommit();
     }
 
     public void saveContact(TalkClientContact contact) throws SQLException {
@@ -133,9 +846,24 @@ public class XoClientDatabase {
         mGroupMembers.createOrUpdate(member);
     }
 
-    public synchronized void saveClientMessage(TalkClientMessage message) throws SQLException {
-        message.setProgressState(false);
-        mClientMessages.createOrUpdate(message);
+    /**
+     * Save a message together with the summary of its conversation
+     *
+     * Both are written in one transaction, the one of the caller
+     * if there is one.
+     */
+    public synchronized void saveClientMessage(final TalkClientMessage message) throws SQLException {
+        runInCurrentTransaction(new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                message.setProgressState(false);
+                saveEntity(mClientMessages, message);
+                addMessageId(message.getMessageId());
+                updateUnseenIndex(message);
+                updateConversation(message);
+                return null;
+            }
+        });
     }
 
     public void saveMessage(TalkMessage message) throws SQLException {
@@ -143,23 +871,47 @@ public class XoClientDatabase {
     }
 
     public synchronized void saveDelivery(TalkDelivery delivery) throws SQLException {
-        mDeliveries.createOrUpdate(delivery);
+        saveEntity(mDeliveries, delivery);
     }
 
     public void savePublicKey(TalkKey publicKey) throws SQLException {
         mPublicKeys.createOrUpdate(publicKey);
+        mKeyCache.invalidatePublicKey(publicKey.getKeyId());
     }
 
     public void savePrivateKey(TalkPrivateKey privateKey) throws SQLException {
         mPrivateKeys.createOrUpdate(privateKey);
+        mKeyCache.invalidatePrivateKey(privateKey.getKeyId());
+    }
+
+    public XoKeyCache getKeyCache() {
+        return mKeyCache;
     }
 
     public void saveClientDownload(TalkClientDownload download) throws SQLException {
-        mClientDownloads.createOrUpdate(download);
+        saveEntity(mClientDownloads, download);
     }
 
     public void saveClientUpload(TalkClientUpload upload) throws SQLException {
-        mClientUploads.createOrUpdate(upload);
+        saveEntity(mClientUploads, upload);
+    }
+
+    /**
+     * Write only the progress of a stored download
+     */
+    public void saveClientDownloadProgress(int clientDownloadId, int progress) throws SQLException {
+        UpdateBuilder<TalkClientDownload, Integer> updateBuilder = mClientDownloads.updateBuilder();
+        updateBuilder.updateColumnValue("downloadProgress", progress).where().idEq(clientDownloadId);
+        updateBuilder.update();
+    }
+
+    /**
+     * Write only the progress of a stored upload
+     */
+    public void saveClientUploadProgress(int clientUploadId, int progress) throws SQLException {
+        UpdateBuilder<TalkClientUpload, Integer> updateBuilder = mClientUploads.updateBuilder();
+        updateBuilder.updateColumnValue("progress", progress).where().idEq(clientUploadId);
+        updateBuilder.update();
     }
 
     public void refreshClientContact(TalkClientContact contact) throws SQLException {
@@ -188,28 +940,27 @@ public class XoClientDatabase {
         return findAllClientContactsOrderedByRecentMessage();
     }
 
+    /**
+     * @return all contacts, those with the most recent messages first
+     */
     private List<TalkClientContact> findAllClientContactsOrderedByRecentMessage() throws SQLException {
-        QueryBuilder<TalkClientMessage, Integer> recentUnreadMessages = mClientMessages.queryBuilder();
-        QueryBuilder<TalkClientContact, Integer> recentSenders = mClientContacts.queryBuilder();
-        recentUnreadMessages.orderBy("timestamp", false);
-        List<TalkClientContact> orderedListOfSenders = recentSenders.join(recentUnreadMessages).where()
-                .eq("deleted", false)
-                .query();
-        List<TalkClientContact> allContacts = mClientContacts.queryBuilder().where()
-                .eq("deleted", false)
+        List<TalkClientConversation> conversations = mConversations.queryBuilder()
+                .orderBy("timestamp", false)
+                .where().isNotNull("timestamp")
                 .query();
-        ArrayList<TalkClientContact> orderedListOfDistinctSenders = new ArrayList<TalkClientContact>();
-        for (int i=0; i<orderedListOfSenders.size(); i++) {
-            if (!orderedListOfDistinctSenders.contains(orderedListOfSenders.get(i))) {
-                orderedListOfDistinctSenders.add(orderedListOfSenders.get(i));
-            }
+        Map<Integer, TalkClientContact> remainingContacts = new LinkedHashMap<Integer, TalkClientContact>();
+        for(TalkClientContact contact: findAllContacts()) {
+            remainingContacts.put(contact.getClientContactId(), contact);
         }
-        for (int i=0; i<allContacts.size(); i++) {
-            if (!orderedListOfDistinctSenders.contains(allContacts.get(i))) {
-                orderedListOfDistinctSenders.add(allContacts.get(i));
+        List<TalkClientContact> orderedContacts = new ArrayList<TalkClientContact>(remainingContacts.size());
+        for(TalkClientConversation conversation: conversations) {
+            TalkClientContact contact = remainingContacts.remove(conversation.getContactId());
+            if(contact != null) {
+                orderedContacts.add(contact);
             }
         }
-        return orderedListOfDistinctSenders;
+        orderedContacts.addAll(remainingContacts.values());
+        return orderedContacts;
     }
 
     public List<TalkClientContact> findAllGroupContacts() throws SQLException {
@@ -265,38 +1016,54 @@ public class XoClientDatabase {
         return contact;
     }
 
-    public synchronized TalkClientContact findContactByClientId(String clientId, boolean create) throws SQLException {
-        TalkClientContact contact = null;
+    public TalkClientContact findContactByClientId(String clientId, boolean create) throws SQLException {
+        TalkClientContact contact = queryContactByClientId(clientId);
 
-        contact = mClientContacts.queryBuilder()
+        if(create && contact == null) {
+            // only creation needs the lock, re-check to avoid duplicates
+            synchronized (this) {
+                contact = queryContactByClientId(clientId);
+                if(contact == null) {
+                    contact = new TalkClientContact(TalkClientContact.TYPE_CLIENT, clientId);
+                    mClientContacts.create(contact);
+                }
+            }
+        }
+
+        return contact;
+    }
+
+    private TalkClientContact queryContactByClientId(String clientId) throws SQLException {
+        return mClientContacts.queryBuilder()
                     .where().eq("clientId", clientId)
                             .eq("deleted", false)
                             .and(2)
                     .queryForFirst();
+    }
+
+    public TalkClientContact findContactByGroupId(String groupId, boolean create) throws SQLException {
+        TalkClientContact contact = queryContactByGroupId(groupId);
 
         if(create && contact == null) {
-            contact = new TalkClientContact(TalkClientContact.TYPE_CLIENT, clientId);
-            mClientContacts.create(contact);
+            // only creation needs the lock, re-check to avoid duplicates
+            synchronized (this) {
+                contact = queryContactByGroupId(groupId);
+                if(contact == null) {
+                    contact = new TalkClientContact(TalkClientContact.TYPE_GROUP, groupId);
+                    mClientContacts.create(contact);
+                }
+            }
         }
 
         return contact;
     }
 
-    public synchronized TalkClientContact findContactByGroupId(String groupId, boolean create) throws SQLException {
-        TalkClientContact contact = null;
-
-        contact = mClientContacts.queryBuilder()
+    private TalkClientContact queryContactByGroupId(String groupId) throws SQLException {
+        return mClientContacts.queryBuilder()
                     .where().eq("groupId", groupId)
                             .eq("deleted", false)
                             .and(2)
                     .queryForFirst();
-
-        if(create && contact == null) {
-            contact = new TalkClientContact(TalkClientContact.TYPE_GROUP, groupId);
-            mClientContacts.create(contact);
-        }
-
-        return contact;
     }
 
     public TalkClientContact findContactByGroupTag(String groupTag) throws SQLException {
@@ -307,28 +1074,30 @@ public class XoClientDatabase {
                 .queryForFirst();
     }
 
-    public synchronized List<TalkClientMessage> findMessagesForDelivery() throws SQLException {
-        List<TalkDelivery> newDeliveries = mDeliveries.queryForEq(TalkDelivery.FIELD_STATE, TalkDelivery.STATE_NEW);
+    /**
+     * Find outgoing messages waiting to be delivered
+     *
+     * Selects messages with a new outgoing delivery that are not
+     * already in progress in a single query, oldest first.
+     *
+     * @param limit maximum number of messages to return
+     */
+    public List<TalkClientMessage> findMessagesForDelivery(int limit) throws SQLException {
+        QueryBuilder<TalkDelivery, Long> newDeliveries = mDeliveries.queryBuilder();
+        newDeliveries.selectColumns(mDeliveryIdColumn)
+                .where().eq(TalkDelivery.FIELD_STATE, TalkDelivery.STATE_NEW);
 
         List<TalkClientMessage> messages = new ArrayList<TalkClientMessage>();
         try {
-            for (TalkDelivery newDelivery : newDeliveries) {
-                TalkClientMessage message = mClientMessages.queryBuilder()
-                        .where()
-                        .eq("outgoingDelivery" + "_id", newDelivery)
-                        .queryForFirst();
-
-                if (message != null) {
-
-                    if (!message.isInProgress()) {
-                        messages.add(message);
-                    }
-
-                } else {
-                    LOG.error("No outgoing delivery for message with tag '" + newDelivery.getMessageTag() + "'.");
-                }
-            }
-
+            messages = mClientMessages.queryBuilder()
+                    .orderBy("timestamp", true)
+                    .orderBy("clientMessageId", true)
+                    .limit((long)limit)
+                    .where()
+                    .in("outgoingDelivery" + "_id", newDeliveries)
+                    .and()
+                    .eq("inProgress", false)
+                    .query();
         } catch (SQLException e) {
             LOG.error("Error while fetching messages for delivery: ", e);
         }
@@ -339,19 +1108,43 @@ public class XoClientDatabase {
     public synchronized TalkClientMessage findMessageByMessageId(String messageId, boolean create) throws SQLException {
         TalkClientMessage message = null;
 
-        message = mClientMessages.queryBuilder()
-                    .where().eq("messageId", messageId)
-                    .queryForFirst();
+        if(mightHaveMessageId(messageId)) {
+            message = mClientMessages.queryBuilder()
+                        .where().eq("messageId", messageId)
+                        .queryForFirst();
+        }
 
         if(create && message == null) {
             message = new TalkClientMessage();
             message.setMessageId(messageId);
             mClientMessages.create(message);
+            addMessageId(messageId);
         }
 
         return message;
     }
 
+    /**
+     * Find the message with the given id or prepare a new one
+     *
+     * Unknown ids are usually recognized by the message id filter
+     * without querying. A new message is not stored here, so that it
+     * can be written once together with its content.
+     *
+     * @return the stored message or a new unsaved one with the given id
+     */
+    public TalkClientMessage findOrCreateMessageByMessageId(String messageId) throws SQLException {
+        TalkClientMessage message = null;
+        if(mightHaveMessageId(messageId)) {
+            message = findMessageByMessageId(messageId, false);
+        }
+        if(message == null) {
+            message = new TalkClientMessage();
+            message.setMessageId(messageId);
+        }
+        return message;
+    }
+
     public synchronized TalkClientMessage findMessageByMessageTag(String messageTag, boolean create) throws SQLException {
         TalkClientMessage message = null;
 
@@ -371,6 +1164,10 @@ public class XoClientDatabase {
         return mClientMessages.queryForEq("conversationContact_id", contactId);
     }
 
+    /**
+     * @deprecated deep offsets are slow, use {@link #findMessagesBefore} and {@link #findMessagesAfter}
+     */
+    @Deprecated
     public List<TalkClientMessage> findMessagesByContactId(int contactId, long count, long offset) throws SQLException {
         QueryBuilder<TalkClientMessage, Integer> builder = mClientMessages.queryBuilder();
         builder.limit(count);
@@ -385,23 +1182,157 @@ public class XoClientDatabase {
         return messages;
     }
 
+    /**
+     * Page backwards through the history of a conversation
+     *
+     * Messages are ordered by timestamp and then by client message id,
+     * so the position of every message is unique.
+     *
+     * @param timestamp of the message to page back from, or null to start with the newest messages
+     * @param clientMessageId of the message to page back from
+     * @param count maximum number of messages to return
+     * @return messages before the given position, oldest first
+     */
+    public List<TalkClientMessage> findMessagesBefore(int contactId, Date timestamp, int clientMessageId, int count) throws SQLException {
+        List<TalkClientMessage> messages = findMessagesFrom(contactId, timestamp, clientMessageId, count, false);
+        Collections.reverse(messages);
+        return messages;
+    }
+
+    /**
+     * Page forward through the history of a conversation
+     *
+     * @param timestamp of the message to page forward from, or null to start with the oldest messages
+     * @param clientMessageId of the message to page forward from
+     * @param count maximum number of messages to return
+     * @return messages after the given position, oldest first
+     */
+    public List<TalkClientMessage> findMessagesAfter(int contactId, Date timestamp, int clientMessageId, int count) throws SQLException {
+        return findMessagesFrom(contactId, timestamp, clientMessageId, count, true);
+    }
+
+    private List<TalkClientMessage> findMessagesFrom(int contactId, Date timestamp, int clientMessageId, int count, boolean forward) throws SQLException {
+        QueryBuilder<TalkClientMessage, Integer> builder = mClientMessages.queryBuilder();
+        selectHistoryPage(builder, contactId, timestamp, clientMessageId, count, forward);
+        return builder.query();
+    }
+
+    /**
+     * Page backwards through the history of a conversation without loading references
+     *
+     * @see #findMessagesBefore
+     */
+    public List<TalkClientMessageSummary> findMessageSummariesBefore(int contactId, Date timestamp, int clientMessageId, int count) throws SQLException {
+        QueryBuilder<TalkClientMessageSummary, Integer> builder = mClientMessageSummaries.queryBuilder();
+        builder.selectColumns(TalkClientMessageSummary.COLUMNS);
+        selectHistoryPage(builder, contactId, timestamp, clientMessageId, count, false);
+        List<TalkClientMessageSummary> summaries = builder.query();
+        Collections.reverse(summaries);
+        return summaries;
+    }
+
+    /**
+     * Page forward through the history of a conversation without loading references
+     *
+     * @see #findMessagesAfter
+     */
+    public List<TalkClientMessageSummary> findMessageSummariesAfter(int contactId, Date timestamp, int clientMessageId, int count) throws SQLException {
+        QueryBuilder<TalkClientMessageSummary, Integer> builder = mClientMessageSummaries.queryBuilder();
+        builder.selectColumns(TalkClientMessageSummary.COLUMNS);
+        selectHistoryPage(builder, contactId, timestamp, clientMessageId, count, true);
+        return builder.query();
+    }
+
+    private <T> void selectHistoryPage(QueryBuilder<T, Integer> builder, int contactId, Date timestamp, int clientMessageId, int count, boolean forward) throws SQLException {
+        builder.orderBy("timestamp", forward);
+        builder.orderBy("clientMessageId", forward);
+        builder.limit((long)count);
+        Where<T, Integer> where = builder.where();
+        if(timestamp == null) {
+            where.eq("conversationContact_id", contactId);
+        } else if(forward) {
+            where.and(where.eq("conversationContact_id", contactId),
+                      where.or(where.gt("timestamp", timestamp),
+                               where.and(where.eq("timestamp", timestamp),
+                                         where.gt("clientMessageId", clientMessageId))));
+        } else {
+            where.and(where.eq("conversationContact_id", contactId),
+                      where.or(where.lt("timestamp", timestamp),
+                               where.and(where.eq("timestamp", timestamp),
+                                         where.lt("clientMessageId", clientMessageId))));
+        }
+    }
+
+    /**
+     * @deprecated boxes every id, use {@link #findMessageIdArrayByContactId} or {@link #openMessageIdCursor}
+     */
+    @Deprecated
     public Vector<Integer> findMessageIdsByContactId(int contactId) throws SQLException {
-        GenericRawResults<Object[]> results = mClientMessages.queryRaw(
-                "select clientMessageId from clientMessage where conversationContact_id = ?",
-                new DataType[]{DataType.INTEGER}, Integer.toString(contactId));
-        List<Object[]> rows = results.getResults();
-        Vector<Integer> ret = new Vector<Integer>(rows.size());
-        for(Object[] row: rows) {
-            Integer r = (Integer)row[0];
-            ret.add(r);
+        int[] ids = findMessageIdArrayByContactId(contactId);
+        Vector<Integer> ret = new Vector<Integer>(ids.length);
+        for(int id: ids) {
+            ret.add(id);
         }
         return ret;
     }
 
+    /**
+     * @return client message ids of all messages in the conversation
+     */
+    public int[] findMessageIdArrayByContactId(int contactId) throws SQLException {
+        int[] ids = new int[64];
+        int count = 0;
+        GenericRawResults<Object[]> results = queryMessageIdsByContactId(contactId);
+        try {
+            for(Object[] row: results) {
+                if(count == ids.length) {
+                    ids = Arrays.copyOf(ids, ids.length * 2);
+                }
+                ids[count++] = (Integer)row[0];
+            }
+        } finally {
+            results.close();
+        }
+        return count == ids.length ? ids : Arrays.copyOf(ids, count);
+    }
+
+    /**
+     * Stream the client message ids of all messages in the conversation
+     *
+     * The returned cursor must be closed by the caller.
+     */
+    public XoMessageIdCursor openMessageIdCursor(int contactId) throws SQLException {
+        return new XoMessageIdCursor(queryMessageIdsByContactId(contactId));
+    }
+
+    private GenericRawResults<Object[]> queryMessageIdsByContactId(int contactId) throws SQLException {
+        return mClientMessages.queryRaw(
+                "select clientMessageId from clientMessage where conversationContact_id = ?",
+                new DataType[]{DataType.INTEGER}, Integer.toString(contactId));
+    }
+
     public TalkPrivateKey findPrivateKeyByKeyId(String keyId) throws SQLException {
         return mPrivateKeys.queryBuilder().where().eq("keyId", keyId).queryForFirst();
     }
 
+    /**
+     * Find the decoded private key with the given id
+     *
+     * Answered from the key cache when possible.
+     *
+     * @return the private key or null if it is unknown or can not be decoded
+     */
+    public PrivateKey findNativePrivateKeyByKeyId(String keyId) throws SQLException {
+        PrivateKey result = mKeyCache.getPrivateKey(keyId);
+        if(result == null) {
+            TalkPrivateKey talkPrivateKey = findPrivateKeyByKeyId(keyId);
+            if(talkPrivateKey != null) {
+                result = mKeyCache.getPrivateKey(talkPrivateKey);
+            }
+        }
+        return result;
+    }
+
     public TalkClientUpload findClientUploadById(int clientUploadId) throws SQLException {
         return mClientUploads.queryForId(clientUploadId);
     }
@@ -415,14 +1346,25 @@ public class XoClientDatabase {
     }
 
     public long findUnseenMessageCountByContactId(int contactId) throws SQLException {
-        return mClientMessages.queryBuilder().where()
-                .eq("conversationContact_id", contactId)
-                .eq("seen", false)
-                .and(2)
-                .countOf();
+        return getUnseenCount(contactId);
+    }
+
+    public TalkClientConversation findConversationByContactId(int contactId) throws SQLException {
+        return mConversations.queryForId(contactId);
     }
 
+    /**
+     * @return the latest message with text in the conversation, looked up through its summary
+     */
     public TalkClientMessage findLatestMessageByContactId(int contactId) throws SQLException {
+        TalkClientConversation conversation = mConversations.queryForId(contactId);
+        if(conversation == null || conversation.getLastMessageId() == 0) {
+            return null;
+        }
+        return mClientMessages.queryForId(conversation.getLastMessageId());
+    }
+
+    private TalkClientMessage queryLatestMessageByContactId(int contactId) throws SQLException {
         return mClientMessages.queryBuilder()
                 .orderBy("timestamp", false)
                     .where()
@@ -473,6 +1415,40 @@ public class XoClientDatabase {
         mSmsTokens.delete(token);
     }
 
+    public List<TalkClientDeliveryConfirmation> findAllDeliveryConfirmations() throws SQLException {
+        return mDeliveryConfirmations.queryBuilder()
+                .orderBy("confirmationId", true)
+                .query();
+    }
+
+    public void saveDeliveryConfirmation(TalkClientDeliveryConfirmation confirmation) throws SQLException {
+        mDeliveryConfirmations.createOrUpdate(confirmation);
+    }
+
+    public void deleteDeliveryConfirmations(List<TalkClientDeliveryConfirmation> confirmations) throws SQLException {
+        mDeliveryConfirmations.delete(confirmations);
+    }
+
+    public TalkClientSyncState findSyncState(String category, boolean create) throws SQLException {
+        TalkClientSyncState state = mSyncStates.queryForId(category);
+
+        if(create && state == null) {
+            state = new TalkClientSyncState(category);
+            mSyncStates.create(state);
+        }
+
+        return state;
+    }
+
+    public void saveSyncState(TalkClientSyncState state) throws SQLException {
+        mSyncStates.createOrUpdate(state);
+    }
+
+    public void eraseAllSyncStates() throws SQLException {
+        DeleteBuilder<TalkClientSyncState, String> deleteBuilder = mSyncStates.deleteBuilder();
+        deleteBuilder.delete();
+    }
+
     public void deleteAllClientContacts() throws SQLException {
         UpdateBuilder<TalkClientContact, Integer> updateBuilder = mClientContacts.updateBuilder();
         updateBuilder.updateColumnValue("deleted", true).where()
@@ -0,0 +1,256 @@
+package com.hoccer.talk.client;
+
+import com.hoccer.talk.client.model.TalkClientDeliveryConfirmation;
+import com.hoccer.talk.rpc.ITalkRpcServer;
+import org.apache.log4j.Logger;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Coalescing queue for delivery confirmations
+ *
+ * Confirms, aborts and acknowledges are collected for a short time
+ * or until enough of them are queued and then flushed together through
+ * the RPC pipeline. Every queued confirmation is persisted until the
+ * server accepted it, so nothing is lost when the connection drops.
+ */
+public class XoConfirmationQueue {
+
+    private static final Logger LOG = Logger.getLogger(XoConfirmationQueue.class);
+
+    XoClient mClient;
+
+    XoClientDatabase mDatabase;
+
+    ScheduledExecutorService mExecutor;
+
+    /** Confirmations not yet accepted by the server, keyed by operation */
+    Map<String, TalkClientDeliveryConfirmation> mPending = new LinkedHashMap<String, TalkClientDeliveryConfirmation>();
+
+    /** Operations currently being sent */
+    Set<String> mInFlight = new HashSet<String>();
+
+    /** Operations being persisted, not yet in mPending */
+    Set<String> mSaving = new HashSet<String>();
+
+    /** Future of the next scheduled flush */
+    ScheduledFuture<?> mFlushFuture;
+
+    public XoConfirmationQueue(XoClient client) {
+        this(client, client.getDatabase(), client.getHost().getBackgroundExecutor());
+    }
+
+    XoConfirmationQueue(XoClient client, XoClientDatabase database, ScheduledExecutorService executor) {
+        mClient = client;
+        mDatabase = database;
+        mExecutor = executor;
+    }
+
+    /**
+     * Load confirmations left over from a previous session
+     */
+    public void initialize() {
+        try {
+            List<TalkClientDeliveryConfirmation> confirmations = mDatabase.findAllDeliveryConfirmations();
+            synchronized (this) {
+                for(TalkClientDeliveryConfirmation confirmation: confirmations) {
+                    mPending.put(confirmation.getOperationKey(), confirmation);
+                }
+            }
+            if(!confirmations.isEmpty()) {
+                LOG.info(confirmations.size() + " delivery confirmations pending from previous session");
+            }
+        } catch (SQLException e) {
+            LOG.error("SQL error", e);
+        }
+    }
+
+    public void confirm(String messageId) {
+        enqueue(new TalkClientDeliveryConfirmation(TalkClientDeliveryConfirmation.TYPE_CONFIRM, messageId, null));
+    }
+
+    public void abort(String messageId, String receiverId) {
+        enqueue(new TalkClientDeliveryConfirmation(TalkClientDeliveryConfirmation.TYPE_ABORT, messageId, receiverId));
+    }
+
+    public void acknowledge(String messageId, String receiverId) {
+        enqueue(new TalkClientDeliveryConfirmation(TalkClientDeliveryConfirmation.TYPE_ACKNOWLEDGE, messageId, receiverId));
+    }
+
+    /**
+     * @return number of confirmations not yet accepted by the server
+     */
+    public synchronized int getPendingCount() {
+        return mPending.size();
+    }
+
+    /**
+     * Persist a confirmation and queue it for the next flush
+     *
+     * The confirmation is only visible to flush() once it has been
+     * saved, so a flush can never delete it before it was stored.
+     */
+    private void enqueue(TalkClientDeliveryConfirmation confirmation) {
+        String key = confirmation.getOperationKey();
+        synchronized (this) {
+            if(mPending.containsKey(key) || mSaving.contains(key)) {
+                LOG.debug("already queued " + key);
+                return;
+            }
+            mSaving.add(key);
+        }
+        try {
+            mDatabase.saveDeliveryConfirmation(confirmation);
+        } catch (SQLException e) {
+            // still send it, it just does not survive a restart
+            LOG.error("SQL error", e);
+        }
+        boolean full;
+        synchronized (this) {
+            mSaving.remove(key);
+            mPending.put(key, confirmation);
+            full = mPending.size() - mInFlight.size() >= XoClientConfiguration.CONFIRMATION_BATCH_SIZE;
+        }
+        if(full) {
+            scheduleFlush(0);
+        } else {
+            scheduleFlush(XoClientConfiguration.CONFIRMATION_FLUSH_DELAY);
+        }
+    }
+
+    /**
+     * Schedule a flush unless one is already due earlier
+     *
+     * @param delay in milliseconds
+     */
+    public synchronized void scheduleFlush(long delay) {
+        if(mFlushFuture != null && !mFlushFuture.isDone()) {
+            if(mFlushFuture.getDelay(TimeUnit.MILLISECONDS) <= delay) {
+                return;
+            }
+            mFlushFuture.cancel(false);
+        }
+        mFlushFuture = mExecutor.schedule(new Runnable() {
+            @Override
+            public void run() {
+                flush();
+            }
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Send all queued confirmations to the server
+     *
+     * Confirmations are kept for a later flush when the client
+     * is not logged in or when their call fails. Failed calls are
+     * retried after CONFIRMATION_RETRY_DELAY, confirmations kept
+     * while logged out are flushed on the next login.
+     */
+    public void flush() {
+        if(!isLoggedIn()) {
+            LOG.debug("flush() - not logged in, keeping " + getPendingCount() + " confirmations");
+            return;
+        }
+
+        final List<TalkClientDeliveryConfirmation> batch = new ArrayList<TalkClientDeliveryConfirmation>();
+        synchronized (this) {
+            for(Map.Entry<String, TalkClientDeliveryConfirmation> entry: mPending.entrySet()) {
+                if(!mInFlight.contains(entry.getKey())) {
+                    batch.add(entry.getValue());
+                    mInFlight.add(entry.getKey());
+                }
+            }
+        }
+        if(batch.isEmpty()) {
+            return;
+        }
+
+        LOG.debug("flushing " + batch.size() + " delivery confirmations");
+
+        XoRpcPipeline pipeline = getServerRpcPipeline();
+        final ITalkRpcServer rpc = pipeline.getServerRpc();
+        List<Future<?>> futures = new ArrayList<Future<?>>(batch.size());
+        for(final TalkClientDeliveryConfirmation confirmation: batch) {
+            futures.add(pipeline.submit(new Callable<Void>() {
+                @Override
+                public Void call() {
+                    String type = confirmation.getType();
+                    if(TalkClientDeliveryConfirmation.TYPE_CONFIRM.equals(type)) {
+                        rpc.deliveryConfirm(confirmation.getMessageId());
+                    } else if(TalkClientDeliveryConfirmation.TYPE_ABORT.equals(type)) {
+                        rpc.deliveryAbort(confirmation.getMessageId(), confirmation.getReceiverId());
+                    } else if(TalkClientDeliveryConfirmation.TYPE_ACKNOWLEDGE.equals(type)) {
+                        rpc.deliveryAcknowledge(confirmation.getMessageId(), confirmation.getReceiverId());
+                    } else {
+                        LOG.error("unknown confirmation type " + type);
+                    }
+                    return null;
+                }
+            }));
+        }
+
+        List<TalkClientDeliveryConfirmation> done = new ArrayList<TalkClientDeliveryConfirmation>(batch.size());
+        boolean interrupted = false;
+        for(int i = 0; i < batch.size(); i++) {
+            TalkClientDeliveryConfirmation confirmation = batch.get(i);
+            try {
+                futures.get(i).get();
+                done.add(confirmation);
+            } catch (InterruptedException e) {
+                LOG.warn("interrupted while flushing confirmations");
+                Thread.currentThread().interrupt();
+                interrupted = true;
+                break;
+            } catch (ExecutionException e) {
+                LOG.error("error sending " + confirmation.getOperationKey(), e.getCause());
+            }
+        }
+
+        try {
+            if(!done.isEmpty()) {
+                mDatabase.deleteDeliveryConfirmations(done);
+            }
+        } catch (SQLException e) {
+            LOG.error("SQL error", e);
+        }
+
+        synchronized (this) {
+            for(TalkClientDeliveryConfirmation confirmation: batch) {
+                mInFlight.remove(confirmation.getOperationKey());
+            }
+            for(TalkClientDeliveryConfirmation confirmation: done) {
+                mPending.remove(confirmation.getOperationKey());
+            }
+        }
+
+        LOG.debug("flushed " + done.size() + " of " + batch.size() + " delivery confirmations");
+
+        if(done.size() < batch.size() && !interrupted) {
+            scheduleFlush(XoClientConfiguration.CONFIRMATION_RETRY_DELAY);
+        }
+    }
+
+    /**
+     * @return true if confirmations can be sent to the server
+     */
+    boolean isLoggedIn() {
+        return mClient.isLoggedIn();
+    }
+
+    XoRpcPipeline getServerRpcPipeline() {
+        return mClient.getServerRpcPipeline();
+    }
+
+}
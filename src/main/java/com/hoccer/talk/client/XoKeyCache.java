@@ -0,0 +1,140 @@
+package com.hoccer.talk.client;
+
+import com.hoccer.talk.model.TalkKey;
+import com.hoccer.talk.model.TalkPrivateKey;
+import org.apache.log4j.Logger;
+
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Bounded cache of decoded keys
+ *
+ * Decoding a key from its stored form is expensive, so the native
+ * forms are kept by key id. Least recently used keys are evicted
+ * when the cache is full.
+ *
+ * Keys are decoded outside the cache lock. If two threads decode
+ * the same key at once, the first result is kept. A result is
+ * dropped if the cache was invalidated while it was decoded.
+ */
+public class XoKeyCache {
+
+    private static final Logger LOG = Logger.getLogger(XoKeyCache.class);
+
+    /** Decoded private keys by key id */
+    Map<String, PrivateKey> mPrivateKeys;
+
+    /** Decoded public keys by key id */
+    Map<String, PublicKey> mPublicKeys;
+
+    /** Incremented by every invalidation */
+    long mGeneration = 0;
+
+    public XoKeyCache(int capacity) {
+        mPrivateKeys = new LruMap<PrivateKey>(capacity);
+        mPublicKeys = new LruMap<PublicKey>(capacity);
+    }
+
+    /**
+     * @return the native form of the given key, decoded at most once
+     */
+    public PrivateKey getPrivateKey(TalkPrivateKey key) {
+        String keyId = key.getKeyId();
+        long generation;
+        synchronized (this) {
+            PrivateKey cached = mPrivateKeys.get(keyId);
+            if(cached != null) {
+                return cached;
+            }
+            generation = mGeneration;
+        }
+        PrivateKey result = key.getAsNative();
+        if(result == null || keyId == null) {
+            return result;
+        }
+        synchronized (this) {
+            PrivateKey cached = mPrivateKeys.get(keyId);
+            if(cached != null) {
+                return cached;
+            }
+            if(generation == mGeneration) {
+                mPrivateKeys.put(keyId, result);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return the cached native form of the private key with the given id, or null
+     */
+    public synchronized PrivateKey getPrivateKey(String keyId) {
+        return mPrivateKeys.get(keyId);
+    }
+
+    /**
+     * @return the native form of the given key, decoded at most once
+     */
+    public PublicKey getPublicKey(TalkKey key) {
+        String keyId = key.getKeyId();
+        long generation;
+        synchronized (this) {
+            PublicKey cached = mPublicKeys.get(keyId);
+            if(cached != null) {
+                return cached;
+            }
+            generation = mGeneration;
+        }
+        PublicKey result = key.getAsNative();
+        if(result == null || keyId == null) {
+            return result;
+        }
+        synchronized (this) {
+            PublicKey cached = mPublicKeys.get(keyId);
+            if(cached != null) {
+                return cached;
+            }
+            if(generation == mGeneration) {
+                mPublicKeys.put(keyId, result);
+            }
+        }
+        return result;
+    }
+
+    public synchronized void invalidatePrivateKey(String keyId) {
+        mGeneration++;
+        mPrivateKeys.remove(keyId);
+    }
+
+    public synchronized void invalidatePublicKey(String keyId) {
+        mGeneration++;
+        mPublicKeys.remove(keyId);
+    }
+
+    public synchronized void clear() {
+        LOG.debug("clearing key cache");
+        mGeneration++;
+        mPrivateKeys.clear();
+        mPublicKeys.clear();
+    }
+
+    /**
+     * Map evicting its least recently accessed entry beyond a fixed size
+     */
+    private static class LruMap<V> extends LinkedHashMap<String, V> {
+        int mCapacity;
+
+        LruMap(int capacity) {
+            super(16, 0.75f, true);
+            mCapacity = capacity;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, V> eldest) {
+            return size() > mCapacity;
+        }
+    }
+
+}
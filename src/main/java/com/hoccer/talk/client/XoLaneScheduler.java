@@ -0,0 +1,157 @@
+package com.hoccer.talk.client;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.apache.log4j.Logger;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Scheduler separating client work into priority lanes
+ *
+ * Each lane has its own thread and queue so that a long sync or
+ * a flood of background work can not delay user actions or
+ * deliveries. Tasks within a lane run one at a time in submission
+ * order, also when the lane is backed up: tasks queued beyond
+ * LANE_QUEUE_CAPACITY are still kept in the lane and counted as
+ * overflow, they never run elsewhere.
+ *
+ * Timers such as keep-alives stay on the host executor.
+ */
+public class XoLaneScheduler {
+
+    private static final Logger LOG = Logger.getLogger(XoLaneScheduler.class);
+
+    public enum Lane {
+        /** Actions performed on behalf of the user */
+        INTERACTIVE,
+        /** Sending of outgoing messages */
+        DELIVERY,
+        /** Synchronization with the server */
+        SYNC,
+        /** Everything else */
+        BACKGROUND
+    }
+
+    /** One executor per lane, indexed by lane ordinal */
+    ThreadPoolExecutor[] mLanes;
+
+    /* Wait time metrics per lane, indexed by lane ordinal */
+    AtomicLong[] mTaskCount;
+    AtomicLong[] mTotalWait;
+    AtomicLong[] mMaxWait;
+    AtomicLong[] mOverflowCount;
+
+    public XoLaneScheduler(IXoClientHost host) {
+        this(host.getUncaughtExceptionHandler());
+    }
+
+    public XoLaneScheduler(Thread.UncaughtExceptionHandler exceptionHandler) {
+        Lane[] lanes = Lane.values();
+        mLanes = new ThreadPoolExecutor[lanes.length];
+        mTaskCount = new AtomicLong[lanes.length];
+        mTotalWait = new AtomicLong[lanes.length];
+        mMaxWait = new AtomicLong[lanes.length];
+        mOverflowCount = new AtomicLong[lanes.length];
+        for(Lane lane: lanes) {
+            int index = lane.ordinal();
+            ThreadFactoryBuilder tfb = new ThreadFactoryBuilder();
+            tfb.setNameFormat("lane-" + lane.name().toLowerCase() + "-%d");
+            if(exceptionHandler != null) {
+                tfb.setUncaughtExceptionHandler(exceptionHandler);
+            }
+            mLanes[index] = new ThreadPoolExecutor(1, 1,
+                    XoClientConfiguration.LANE_THREAD_KEEPALIVE, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<Runnable>(),
+                    tfb.build());
+            mLanes[index].allowCoreThreadTimeOut(true);
+            mTaskCount[index] = new AtomicLong();
+            mTotalWait[index] = new AtomicLong();
+            mMaxWait[index] = new AtomicLong();
+            mOverflowCount[index] = new AtomicLong();
+        }
+    }
+
+    /**
+     * Execute a task in the given lane
+     */
+    public void execute(Lane lane, final Runnable task) {
+        final int index = lane.ordinal();
+        final long queued = System.currentTimeMillis();
+        if(mLanes[index].getQueue().size() >= XoClientConfiguration.LANE_QUEUE_CAPACITY) {
+            LOG.warn("lane " + lane + " is over capacity, queueing anyway");
+            mOverflowCount[index].incrementAndGet();
+        }
+        mLanes[index].execute(new Runnable() {
+            @Override
+            public void run() {
+                recordWait(index, System.currentTimeMillis() - queued);
+                task.run();
+            }
+        });
+    }
+
+    /**
+     * @return an executor submitting to the given lane
+     */
+    public Executor getExecutor(final Lane lane) {
+        return new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                XoLaneScheduler.this.execute(lane, command);
+            }
+        };
+    }
+
+    private void recordWait(int index, long wait) {
+        mTaskCount[index].incrementAndGet();
+        mTotalWait[index].addAndGet(wait);
+        long max = mMaxWait[index].get();
+        while(wait > max && !mMaxWait[index].compareAndSet(max, wait)) {
+            max = mMaxWait[index].get();
+        }
+    }
+
+    /**
+     * @return number of tasks waiting in the lane
+     */
+    public int getQueueSize(Lane lane) {
+        return mLanes[lane.ordinal()].getQueue().size();
+    }
+
+    /**
+     * @return number of tasks started in the lane
+     */
+    public long getTaskCount(Lane lane) {
+        return mTaskCount[lane.ordinal()].get();
+    }
+
+    /**
+     * @return average time tasks waited in the lane queue (msecs)
+     */
+    public long getAverageWaitTime(Lane lane) {
+        long count = mTaskCount[lane.ordinal()].get();
+        if(count == 0) {
+            return 0;
+        }
+        return mTotalWait[lane.ordinal()].get() / count;
+    }
+
+    /**
+     * @return longest time a task waited in the lane queue (msecs)
+     */
+    public long getMaxWaitTime(Lane lane) {
+        return mMaxWait[lane.ordinal()].get();
+    }
+
+    /**
+     * @return number of tasks queued while the lane was over capacity
+     */
+    public long getOverflowCount(Lane lane) {
+        return mOverflowCount[lane.ordinal()].get();
+    }
+
+}
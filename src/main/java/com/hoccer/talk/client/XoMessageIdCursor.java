@@ -0,0 +1,48 @@
+package com.hoccer.talk.client;
+
+import com.j256.ormlite.dao.CloseableIterator;
+import com.j256.ormlite.dao.GenericRawResults;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.sql.SQLException;
+
+/**
+ * Forward-only cursor over the client message ids of a conversation
+ *
+ * Ids are read from the database one row at a time instead of being
+ * collected up front. The cursor holds an open statement and must be
+ * closed when no longer needed.
+ */
+public class XoMessageIdCursor implements Closeable {
+
+    GenericRawResults<Object[]> mResults;
+
+    CloseableIterator<Object[]> mIterator;
+
+    XoMessageIdCursor(GenericRawResults<Object[]> results) {
+        mResults = results;
+        mIterator = results.closeableIterator();
+    }
+
+    public boolean hasNext() {
+        return mIterator.hasNext();
+    }
+
+    /**
+     * @return the next client message id
+     */
+    public int nextId() {
+        return (Integer)mIterator.next()[0];
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            mResults.close();
+        } catch (SQLException e) {
+            throw new IOException("could not close message id cursor", e);
+        }
+    }
+
+}
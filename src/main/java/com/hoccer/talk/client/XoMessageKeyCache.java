@@ -0,0 +1,93 @@
+package com.hoccer.talk.client;
+
+import org.apache.commons.codec.binary.Hex;
+import org.bouncycastle.crypto.digests.SHA256Digest;
+
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Memory-only cache of unwrapped message keys
+ *
+ * Unwrapping a message key costs a private key operation, so keys
+ * are remembered by a digest of their key id and ciphertext. The
+ * cache is bounded and evicts least recently used keys. Keys are
+ * overwritten with zeroes when they leave the cache, and callers
+ * only ever see copies.
+ */
+public class XoMessageKeyCache {
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    /** Unwrapped keys by hex digest of key id and ciphertext */
+    Map<String, byte[]> mKeys;
+
+    public XoMessageKeyCache(final int capacity) {
+        mKeys = new LinkedHashMap<String, byte[]>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, byte[]> eldest) {
+                if(size() > capacity) {
+                    Arrays.fill(eldest.getValue(), (byte)0);
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * @return a copy of the unwrapped key or null if it is not cached
+     */
+    public byte[] get(String keyId, String keyCiphertext) {
+        String digest = digest(keyId, keyCiphertext);
+        synchronized (this) {
+            byte[] key = mKeys.get(digest);
+            return key == null ? null : key.clone();
+        }
+    }
+
+    /**
+     * Remember an unwrapped key, the given array is copied
+     */
+    public void put(String keyId, String keyCiphertext, byte[] key) {
+        String digest = digest(keyId, keyCiphertext);
+        synchronized (this) {
+            byte[] previous = mKeys.put(digest, key.clone());
+            if(previous != null) {
+                Arrays.fill(previous, (byte)0);
+            }
+        }
+    }
+
+    public synchronized int size() {
+        return mKeys.size();
+    }
+
+    /**
+     * Drop and overwrite all cached keys
+     */
+    public synchronized void clear() {
+        Iterator<byte[]> it = mKeys.values().iterator();
+        while(it.hasNext()) {
+            Arrays.fill(it.next(), (byte)0);
+            it.remove();
+        }
+    }
+
+    private static String digest(String keyId, String keyCiphertext) {
+        SHA256Digest digest = new SHA256Digest();
+        byte[] id = String.valueOf(keyId).getBytes(UTF8);
+        byte[] ciphertext = String.valueOf(keyCiphertext).getBytes(UTF8);
+        digest.update(id, 0, id.length);
+        // separate the fields so that different splits can not collide
+        digest.update((byte)0);
+        digest.update(ciphertext, 0, ciphertext.length);
+        byte[] result = new byte[digest.getDigestSize()];
+        digest.doFinal(result, 0);
+        return new String(Hex.encodeHex(result));
+    }
+
+}
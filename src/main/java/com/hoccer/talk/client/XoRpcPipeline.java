@@ -0,0 +1,134 @@
+package com.hoccer.talk.client;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.hoccer.talk.rpc.ITalkRpcServer;
+import org.apache.log4j.Logger;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Asynchronous, pipelined access to the server RPC proxy
+ *
+ * Calls on the plain proxy block their thread for a full round trip.
+ * This pipeline issues calls from a small pool of RPC threads so that
+ * several requests can be outstanding on the connection at once.
+ * The pool size is the limit on requests in flight, further calls
+ * are queued until a slot frees up.
+ *
+ * The pipeline is also an executor so that it can back a
+ * completion service when results should be handled as they arrive.
+ */
+public class XoRpcPipeline implements Executor {
+
+    private static final Logger LOG = Logger.getLogger(XoRpcPipeline.class);
+
+    /** Proxy used to perform the actual calls */
+    ITalkRpcServer mServerRpc;
+
+    /** Executor providing one thread per request in flight */
+    ThreadPoolExecutor mExecutor;
+
+    /** Number of calls submitted but not yet finished */
+    AtomicInteger mPending = new AtomicInteger(0);
+
+    public XoRpcPipeline(XoClient client, ITalkRpcServer serverRpc, int maxInFlight) {
+        this(serverRpc, maxInFlight, client.getHost().getUncaughtExceptionHandler());
+    }
+
+    public XoRpcPipeline(ITalkRpcServer serverRpc, int maxInFlight, Thread.UncaughtExceptionHandler exceptionHandler) {
+        mServerRpc = serverRpc;
+        ThreadFactoryBuilder tfb = new ThreadFactoryBuilder();
+        tfb.setNameFormat("rpc-%d");
+        if(exceptionHandler != null) {
+            tfb.setUncaughtExceptionHandler(exceptionHandler);
+        }
+        mExecutor = new ThreadPoolExecutor(maxInFlight, maxInFlight,
+                XoClientConfiguration.RPC_THREAD_KEEPALIVE, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), tfb.build());
+        mExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * @return the blocking proxy this pipeline calls through
+     */
+    public ITalkRpcServer getServerRpc() {
+        return mServerRpc;
+    }
+
+    public int getMaxInFlight() {
+        return mExecutor.getMaximumPoolSize();
+    }
+
+    /**
+     * Change the number of requests that may be in flight at once
+     */
+    public synchronized void setMaxInFlight(int maxInFlight) {
+        if(maxInFlight < 1) {
+            throw new IllegalArgumentException("need at least one request in flight");
+        }
+        LOG.debug("setMaxInFlight(" + maxInFlight + ")");
+        if(maxInFlight > mExecutor.getMaximumPoolSize()) {
+            mExecutor.setMaximumPoolSize(maxInFlight);
+            mExecutor.setCorePoolSize(maxInFlight);
+        } else {
+            mExecutor.setCorePoolSize(maxInFlight);
+            mExecutor.setMaximumPoolSize(maxInFlight);
+        }
+    }
+
+    /**
+     * @return number of calls that are queued or in flight
+     */
+    public int getPendingCount() {
+        return mPending.get();
+    }
+
+    /**
+     * Submit an RPC call for asynchronous execution
+     *
+     * The callable should perform exactly one call on the proxy
+     * returned by getServerRpc(). Errors are reported through the
+     * returned future.
+     *
+     * @param call performing the request
+     * @return future for the result of the call
+     */
+    public <T> Future<T> submit(final Callable<T> call) {
+        mPending.incrementAndGet();
+        return mExecutor.submit(new Callable<T>() {
+            @Override
+            public T call() throws Exception {
+                try {
+                    return call.call();
+                } finally {
+                    mPending.decrementAndGet();
+                }
+            }
+        });
+    }
+
+    /**
+     * Execute a runnable performing RPC calls on the pipeline
+     */
+    @Override
+    public void execute(final Runnable command) {
+        mPending.incrementAndGet();
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    command.run();
+                } finally {
+                    mPending.decrementAndGet();
+                }
+            }
+        });
+    }
+
+}
@@ -0,0 +1,95 @@
+package com.hoccer.talk.client;
+
+import org.apache.log4j.Logger;
+
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.concurrent.Executor;
+
+/**
+ * Executor running tasks in order per key
+ *
+ * Tasks submitted with the same key (a conversation or group)
+ * are run one after another in submission order, while tasks
+ * with different keys are handed to the underlying executor
+ * independently and may run in parallel.
+ */
+public class XoStripedExecutor {
+
+    private static final Logger LOG = Logger.getLogger(XoStripedExecutor.class);
+
+    /** Executor performing the actual work */
+    Executor mExecutor;
+
+    /** Stripes with queued or running tasks, by key */
+    Map<String, Stripe> mStripes = new HashMap<String, Stripe>();
+
+    public XoStripedExecutor(Executor executor) {
+        mExecutor = executor;
+    }
+
+    /**
+     * Execute a task after all tasks previously submitted for the same key
+     *
+     * @param key identifying the stripe, null tasks share one stripe
+     * @param task to run
+     */
+    public void execute(String key, Runnable task) {
+        Stripe stripe;
+        boolean start = false;
+        synchronized (this) {
+            stripe = mStripes.get(key);
+            if(stripe == null) {
+                stripe = new Stripe(key);
+                mStripes.put(key, stripe);
+                start = true;
+            }
+            stripe.mTasks.add(task);
+        }
+        if(start) {
+            mExecutor.execute(stripe);
+        }
+    }
+
+    /**
+     * @return number of keys with queued or running tasks
+     */
+    public synchronized int getActiveStripeCount() {
+        return mStripes.size();
+    }
+
+    /**
+     * Queue of tasks for one key, drained by a single runner at a time
+     */
+    private class Stripe implements Runnable {
+
+        String mKey;
+
+        LinkedList<Runnable> mTasks = new LinkedList<Runnable>();
+
+        Stripe(String key) {
+            mKey = key;
+        }
+
+        @Override
+        public void run() {
+            while(true) {
+                Runnable task;
+                synchronized (XoStripedExecutor.this) {
+                    task = mTasks.poll();
+                    if(task == null) {
+                        mStripes.remove(mKey);
+                        return;
+                    }
+                }
+                try {
+                    task.run();
+                } catch (RuntimeException e) {
+                    LOG.error("error in task for " + mKey, e);
+                }
+            }
+        }
+    }
+
+}
@@ -9,8 +9,11 @@ import org.apache.log4j.Logger;
 
 import java.sql.SQLException;
 import java.util.*;
+import java.util.concurrent.Callable;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 
 public class XoTransferAgent implements IXoTransferListener {
 
@@ -29,6 +32,16 @@ public class XoTransferAgent implements IXoTransferListener {
     Map<Integer, TalkClientDownload> mDownloadsById;
     Map<Integer, TalkClientUpload> mUploadsById;
 
+    /** Thread writing coalesced transfer progress */
+    ScheduledExecutorService mProgressWriter;
+
+    /* Progress not yet written, by transfer id, taken when the progress was reported */
+    Map<Integer, Integer> mUnsavedDownloads = new HashMap<Integer, Integer>();
+    Map<Integer, Integer> mUnsavedUploads = new HashMap<Integer, Integer>();
+
+    /** Scheduled progress write, null if none is pending */
+    ScheduledFuture<?> mProgressSaveFuture;
+
     public XoTransferAgent(XoClient client) {
         mClient = client;
         mDatabase = mClient.getDatabase();
@@ -40,6 +53,10 @@ public class XoTransferAgent implements IXoTransferListener {
         mListeners = new HashSet<IXoTransferListener>();
         mDownloadsById = new HashMap<Integer, TalkClientDownload>();
         mUploadsById = new HashMap<Integer, TalkClientUpload>();
+        ThreadFactoryBuilder ptfb = new ThreadFactoryBuilder();
+        ptfb.setNameFormat("transfer-progress-%d");
+        ptfb.setDaemon(true);
+        mProgressWriter = Executors.newSingleThreadScheduledExecutor(ptfb.build());
         initializeHttpClient();
     }
 
@@ -119,6 +136,139 @@ public class XoTransferAgent implements IXoTransferListener {
         }
     }
 
+    /**
+     * Save a download right away
+     *
+     * Used for state changes, which must not be lost.
+     * Replaces any pending progress write for the download. Runs
+     * under the same locks as saveUnsavedProgress(), so a progress
+     * write in flight can not overwrite the state written here.
+     */
+    public void saveDownload(final TalkClientDownload download) {
+        try {
+            mDatabase.runInTransaction(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    synchronized (XoTransferAgent.this) {
+                        mUnsavedDownloads.remove(download.getClientDownloadId());
+                        mDatabase.saveClientDownload(download);
+                    }
+                    return null;
+                }
+            });
+        } catch (SQLException e) {
+            LOG.error("SQL error", e);
+        }
+    }
+
+    /**
+     * Save the progress of a download eventually
+     *
+     * Progress of all transfers is coalesced and written together within
+     * TRANSFER_PROGRESS_SAVE_DELAY. Only the progress column is written,
+     * with the value at the time of the call. Progress lost in a crash
+     * is recovered when the transfer resumes and checks its range
+     * against the server.
+     */
+    public void saveDownloadProgress(TalkClientDownload download) {
+        int downloadId = download.getClientDownloadId();
+        if(downloadId == 0) {
+            saveDownload(download);
+            return;
+        }
+        synchronized (this) {
+            mUnsavedDownloads.put(downloadId, download.getTransferProgress());
+            scheduleProgressSave();
+        }
+    }
+
+    /**
+     * Save an upload right away
+     *
+     * @see #saveDownload
+     */
+    public void saveUpload(final TalkClientUpload upload) {
+        try {
+            mDatabase.runInTransaction(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    synchronized (XoTransferAgent.this) {
+                        mUnsavedUploads.remove(upload.getClientUploadId());
+                        mDatabase.saveClientUpload(upload);
+                    }
+                    return null;
+                }
+            });
+        } catch (SQLException e) {
+            LOG.error("SQL error", e);
+        }
+    }
+
+    /**
+     * Save the progress of an upload eventually
+     *
+     * @see #saveDownloadProgress
+     */
+    public void saveUploadProgress(TalkClientUpload upload) {
+        int uploadId = upload.getClientUploadId();
+        if(uploadId == 0) {
+            saveUpload(upload);
+            return;
+        }
+        synchronized (this) {
+            mUnsavedUploads.put(uploadId, upload.getTransferProgress());
+            scheduleProgressSave();
+        }
+    }
+
+    private synchronized void scheduleProgressSave() {
+        if(mProgressSaveFuture == null) {
+            mProgressSaveFuture = mProgressWriter.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    saveUnsavedProgress();
+                }
+            }, XoClientConfiguration.TRANSFER_PROGRESS_SAVE_DELAY, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Write all pending transfer progress in one transaction
+     *
+     * The agent lock is held while writing, always inside the
+     * database transaction, as in saveDownload() and saveUpload().
+     */
+    public void saveUnsavedProgress() {
+        try {
+            mDatabase.runInTransaction(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    synchronized (XoTransferAgent.this) {
+                        if(mProgressSaveFuture != null) {
+                            mProgressSaveFuture.cancel(false);
+                            mProgressSaveFuture = null;
+                        }
+                        if(mUnsavedDownloads.isEmpty() && mUnsavedUploads.isEmpty()) {
+                            return null;
+                        }
+                        LOG.trace("saving progress of " + mUnsavedDownloads.size() + " downloads and " + mUnsavedUploads.size() + " uploads");
+                        for(Map.Entry<Integer, Integer> entry: mUnsavedDownloads.entrySet()) {
+                            mDatabase.saveClientDownloadProgress(entry.getKey(), entry.getValue());
+                        }
+                        for(Map.Entry<Integer, Integer> entry: mUnsavedUploads.entrySet()) {
+                            mDatabase.saveClientUploadProgress(entry.getKey(), entry.getValue());
+                        }
+                        mUnsavedDownloads.clear();
+                        mUnsavedUploads.clear();
+                    }
+                    return null;
+                }
+            });
+        } catch (SQLException e) {
+            LOG.error("SQL error", e);
+        }
+    }
+
     public boolean isDownloadActive(TalkClientDownload download) {
         synchronized (mDownloadsById) {
             return mDownloadsById.containsKey(download.getClientDownloadId());
@@ -42,10 +42,10 @@ public class TalkClientContact implements Serializable {
     @DatabaseField(generatedId = true)
     private int clientContactId;
 
-    @DatabaseField
+    @DatabaseField(indexName = "clientContact_type_idx")
     private String contactType;
 
-    @DatabaseField
+    @DatabaseField(indexName = "clientContact_type_idx")
     private boolean deleted;
 
     @DatabaseField
@@ -63,7 +63,7 @@ public class TalkClientContact implements Serializable {
     private TalkClientSelf self;
 
 
-    @DatabaseField(canBeNull = true)
+    @DatabaseField(canBeNull = true, index = true)
     private String clientId;
 
     @DatabaseField(canBeNull = true, foreign = true, foreignAutoRefresh = true)
@@ -73,10 +73,10 @@ public class TalkClientContact implements Serializable {
     private TalkRelationship clientRelationship;
 
 
-    @DatabaseField(canBeNull = true)
+    @DatabaseField(canBeNull = true, index = true)
     private String groupId;
 
-    @DatabaseField(canBeNull = true)
+    @DatabaseField(canBeNull = true, index = true)
     private String groupTag;
 
     @DatabaseField(canBeNull = true)
@@ -0,0 +1,93 @@
+package com.hoccer.talk.client.model;
+
+import com.j256.ormlite.field.DatabaseField;
+import com.j256.ormlite.table.DatabaseTable;
+
+import java.util.Date;
+
+/**
+ * Summary of the conversation with one contact
+ *
+ * Denormalized from the messages of the conversation and updated
+ * whenever one of them is saved, so that conversation lists can be
+ * shown without scanning messages.
+ */
+@DatabaseTable(tableName = "clientConversation")
+public class TalkClientConversation {
+
+    /** Maximum length of the stored snippet */
+    public static final int SNIPPET_LENGTH = 128;
+
+    @DatabaseField(id = true)
+    private int contactId;
+
+    /** Client message id of the latest message with text, 0 if none */
+    @DatabaseField
+    private int lastMessageId;
+
+    @DatabaseField(canBeNull = true, index = true)
+    private Date timestamp;
+
+    @DatabaseField(canBeNull = true, width = SNIPPET_LENGTH)
+    private String snippet;
+
+    @DatabaseField
+    private int unseenCount;
+
+    public TalkClientConversation() {
+    }
+
+    public TalkClientConversation(int contactId) {
+        this.contactId = contactId;
+    }
+
+    public int getContactId() {
+        return contactId;
+    }
+
+    public int getLastMessageId() {
+        return lastMessageId;
+    }
+
+    public Date getTimestamp() {
+        return timestamp;
+    }
+
+    public String getSnippet() {
+        return snippet;
+    }
+
+    public int getUnseenCount() {
+        return unseenCount;
+    }
+
+    public void setUnseenCount(int unseenCount) {
+        this.unseenCount = unseenCount;
+    }
+
+    /**
+     * Take over the given message if it is the latest one
+     *
+     * @return true if the summary changed
+     */
+    public boolean updateLatestMessage(TalkClientMessage message) {
+        String text = message.getText();
+        Date messageTimestamp = message.getTimestamp();
+        if(text == null || messageTimestamp == null) {
+            return false;
+        }
+        int messageId = message.getClientMessageId();
+        if(messageId != lastMessageId && timestamp != null && messageTimestamp.before(timestamp)) {
+            return false;
+        }
+        String messageSnippet = text.length() > SNIPPET_LENGTH ? text.substring(0, SNIPPET_LENGTH) : text;
+        if(messageId == lastMessageId && messageTimestamp.equals(timestamp) && messageSnippet.equals(snippet)) {
+            return false;
+        }
+        lastMessageId = messageId;
+        timestamp = messageTimestamp;
+        snippet = messageSnippet;
+        return true;
+    }
+
+}
@@ -0,0 +1,73 @@
+package com.hoccer.talk.client.model;
+
+import com.j256.ormlite.field.DatabaseField;
+import com.j256.ormlite.table.DatabaseTable;
+
+import java.util.Date;
+
+/**
+ * Delivery state change that still has to be reported to the server
+ *
+ * These are kept until the corresponding RPC call succeeded
+ * so that confirmations survive disconnects and restarts.
+ */
+@DatabaseTable(tableName = "clientDeliveryConfirmation")
+public class TalkClientDeliveryConfirmation {
+
+    public static final String TYPE_CONFIRM = "confirm";
+    public static final String TYPE_ABORT = "abort";
+    public static final String TYPE_ACKNOWLEDGE = "acknowledge";
+
+    @DatabaseField(generatedId = true)
+    private int confirmationId;
+
+    @DatabaseField
+    private String type;
+
+    @DatabaseField
+    private String messageId;
+
+    @DatabaseField(canBeNull = true)
+    private String receiverId;
+
+    @DatabaseField
+    private Date timestamp;
+
+    public TalkClientDeliveryConfirmation() {
+    }
+
+    public TalkClientDeliveryConfirmation(String type, String messageId, String receiverId) {
+        this.type = type;
+        this.messageId = messageId;
+        this.receiverId = receiverId;
+        this.timestamp = new Date();
+    }
+
+    public int getConfirmationId() {
+        return confirmationId;
+    }
+
+    public String getType() {
+        return type;
+    }
+
+    public String getMessageId() {
+        return messageId;
+    }
+
+    public String getReceiverId() {
+        return receiverId;
+    }
+
+    public Date getTimestamp() {
+        return timestamp;
+    }
+
+    /**
+     * @return a key identifying the server-side operation, used to drop duplicates
+     */
+    public String getOperationKey() {
+        return type + ":" + messageId + ":" + receiverId;
+    }
+
+}
@@ -2,7 +2,6 @@ package com.hoccer.talk.client.model;
 
 import com.google.appengine.api.blobstore.ByteRange;
 
-import com.hoccer.talk.client.XoClientDatabase;
 import com.hoccer.talk.client.XoTransfer;
 import com.hoccer.talk.client.XoTransferAgent;
 import com.hoccer.talk.content.ContentDisposition;
@@ -41,7 +40,6 @@ import java.io.RandomAccessFile;
 import java.io.SyncFailedException;
 import java.security.DigestOutputStream;
 import java.security.MessageDigest;
-import java.sql.SQLException;
 import java.util.Date;
 import java.util.Timer;
 import java.util.TimerTask;
@@ -466,7 +464,6 @@ public class TalkClientDownload extends XoTransfer implements IContentObject {
     }
 
     public void performDownloadAttempt(XoTransferAgent agent) {
-        XoClientDatabase database = agent.getDatabase();
         String downloadFilename = computeDownloadFile(agent);
         if (downloadFilename == null) {
             LOG.error("[downloadId: '" + clientDownloadId + "'] could not determine download filename");
@@ -489,11 +486,7 @@ public class TalkClientDownload extends XoTransfer implements IContentObject {
         }
 
         if (changed) {
-            try {
-                database.saveClientDownload(this);
-            } catch (SQLException e) {
-                LOG.error("SQL error", e);
-            }
+            agent.saveDownload(this);
         }
 
         if (state == State.DOWNLOADING) {
@@ -538,11 +531,7 @@ public class TalkClientDownload extends XoTransfer implements IContentObject {
 
         LOG.info("[downloadId: '" + clientDownloadId + "'] download attempt finished in state '" + state + "'");
 
-        try {
-            database.saveClientDownload(this);
-        } catch (SQLException e) {
-            LOG.error("SQL error", e);
-        }
+        agent.saveDownload(this);
     }
 
     private void logGetDebug(String message) {
@@ -564,7 +553,6 @@ public class TalkClientDownload extends XoTransfer implements IContentObject {
     private boolean performOneRequest(XoTransferAgent agent, String filename) {
         LOG.debug("performOneRequest(downloadId: '" + clientDownloadId + "', filename: '" + filename + "')");
         HttpClient client = agent.getHttpClient();
-        XoClientDatabase database = agent.getDatabase();
         RandomAccessFile raf = null;
         FileDescriptor fd = null;
         try {
@@ -694,7 +682,7 @@ public class TalkClientDownload extends XoTransfer implements IContentObject {
                 }
             }
             // update db
-            saveProgress(agent);
+            agent.saveDownloadProgress(this);
             // update state
             if (downloadProgress == contentLength) {
                 if (decryptionKey != null) {
@@ -719,11 +707,7 @@ public class TalkClientDownload extends XoTransfer implements IContentObject {
                     LOG.warn("sync failed while handling download exception", sfe);
                 }
             }
-            try {
-                database.saveClientDownload(this);
-            } catch (SQLException sqle) {
-                LOG.warn("save failed while handling download exception", sqle);
-            }
+            agent.saveDownloadProgress(this);
         }
 
         return true;
@@ -889,17 +873,13 @@ public class TalkClientDownload extends XoTransfer implements IContentObject {
     }
 
     private void saveProgress(XoTransferAgent agent) {
-        try {
-            agent.getDatabase().saveClientDownload(this);
-        } catch (SQLException e) {
-            LOG.error("sql error", e);
-        }
+        agent.saveDownload(this);
     }
 
     private int maybeSaveProgress(XoTransferAgent agent, int previousProgress) {
         int delta = downloadProgress - previousProgress;
         if (delta > PROGRESS_SAVE_MINIMUM) {
-            saveProgress(agent);
+            agent.saveDownloadProgress(this);
             return downloadProgress;
         }
         return previousProgress;
@@ -10,10 +10,10 @@ public class TalkClientMembership {
     @DatabaseField(generatedId = true)
     private int clientMembershipId;
 
-    @DatabaseField(foreign = true, foreignAutoRefresh = true)
+    @DatabaseField(foreign = true, foreignAutoRefresh = true, indexName = "clientMembership_group_idx")
     private TalkClientContact groupContact;
 
-    @DatabaseField(foreign = true, foreignAutoRefresh = true)
+    @DatabaseField(foreign = true, foreignAutoRefresh = true, indexName = "clientMembership_group_idx")
     private TalkClientContact clientContact;
 
     @DatabaseField(foreign = true, foreignAutoRefresh = true, canBeNull = true)
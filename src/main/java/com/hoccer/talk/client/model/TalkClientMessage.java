@@ -16,13 +16,13 @@ public class TalkClientMessage {
     @DatabaseField(generatedId = true)
     private int clientMessageId;
 
-    @DatabaseField
+    @DatabaseField(index = true)
     private String messageId;
 
-    @DatabaseField(canBeNull = true)
+    @DatabaseField(canBeNull = true, index = true)
     private String messageTag;
 
-    @DatabaseField(canBeNull = true, foreign = true, foreignAutoRefresh = true)
+    @DatabaseField(canBeNull = true, foreign = true, foreignAutoRefresh = true, indexName = "clientMessage_conversation_idx")
     private TalkClientContact conversationContact;
 
     @DatabaseField(canBeNull = true, foreign = true, foreignAutoRefresh = true)
@@ -34,7 +34,7 @@ public class TalkClientMessage {
     @DatabaseField(canBeNull = true, foreign = true, foreignAutoRefresh = true)
     private TalkDelivery incomingDelivery;
 
-    @DatabaseField(canBeNull = true, foreign = true, foreignAutoRefresh = true)
+    @DatabaseField(canBeNull = true, foreign = true, foreignAutoRefresh = true, index = true)
     private TalkDelivery outgoingDelivery;
 
     @DatabaseField(canBeNull = true, foreign = true, foreignAutoRefresh = true)
@@ -49,10 +49,10 @@ public class TalkClientMessage {
     @DatabaseField
     private boolean deleted;
 
-    @DatabaseField
+    @DatabaseField(index = true)
     private boolean seen;
 
-    @DatabaseField
+    @DatabaseField(indexName = "clientMessage_conversation_idx")
     private Date timestamp;
 
     @DatabaseField(width = 128)
@@ -0,0 +1,153 @@
+package com.hoccer.talk.client.model;
+
+import com.hoccer.talk.client.XoClientDatabase;
+import com.j256.ormlite.field.DatabaseField;
+import com.j256.ormlite.table.DatabaseTable;
+
+import java.sql.SQLException;
+import java.util.Date;
+
+/**
+ * Read-only projection of a client message
+ *
+ * Maps the columns of the message table needed to render message
+ * lists. References are kept as plain ids instead of foreign
+ * objects, so loading a row costs no extra queries. The full
+ * message is loaded on demand.
+ *
+ * Never saved, the table belongs to TalkClientMessage.
+ */
+@DatabaseTable(tableName = "clientMessage")
+public class TalkClientMessageSummary {
+
+    /** Columns selected when loading summaries */
+    public static final String[] COLUMNS = new String[] {
+        "clientMessageId", "messageId", "messageTag",
+        "conversationContact_id", "senderContact_id",
+        "incomingDelivery_id", "outgoingDelivery_id",
+        "attachmentUpload_id", "attachmentDownload_id",
+        "text", "seen", "timestamp", "inProgress"
+    };
+
+    @DatabaseField(id = true)
+    private int clientMessageId;
+
+    @DatabaseField
+    private String messageId;
+
+    @DatabaseField
+    private String messageTag;
+
+    @DatabaseField(columnName = "conversationContact_id")
+    private int conversationContactId;
+
+    @DatabaseField(columnName = "senderContact_id")
+    private int senderContactId;
+
+    @DatabaseField(columnName = "incomingDelivery_id")
+    private long incomingDeliveryId;
+
+    @DatabaseField(columnName = "outgoingDelivery_id")
+    private long outgoingDeliveryId;
+
+    @DatabaseField(columnName = "attachmentUpload_id")
+    private int attachmentUploadId;
+
+    @DatabaseField(columnName = "attachmentDownload_id")
+    private int attachmentDownloadId;
+
+    @DatabaseField
+    private String text;
+
+    @DatabaseField
+    private boolean seen;
+
+    @DatabaseField
+    private Date timestamp;
+
+    @DatabaseField
+    private boolean inProgress;
+
+    /** Full message, once loaded */
+    private transient TalkClientMessage message;
+
+    public TalkClientMessageSummary() {
+    }
+
+    public int getClientMessageId() {
+        return clientMessageId;
+    }
+
+    public String getMessageId() {
+        return messageId;
+    }
+
+    public String getMessageTag() {
+        return messageTag;
+    }
+
+    public int getConversationContactId() {
+        return conversationContactId;
+    }
+
+    public int getSenderContactId() {
+        return senderContactId;
+    }
+
+    public long getIncomingDeliveryId() {
+        return incomingDeliveryId;
+    }
+
+    public long getOutgoingDeliveryId() {
+        return outgoingDeliveryId;
+    }
+
+    public boolean isIncoming() {
+        return incomingDeliveryId != 0;
+    }
+
+    public boolean isOutgoing() {
+        return outgoingDeliveryId != 0;
+    }
+
+    public boolean hasAttachment() {
+        return attachmentUploadId != 0 || attachmentDownloadId != 0;
+    }
+
+    public int getAttachmentUploadId() {
+        return attachmentUploadId;
+    }
+
+    public int getAttachmentDownloadId() {
+        return attachmentDownloadId;
+    }
+
+    public String getText() {
+        return text;
+    }
+
+    public boolean isSeen() {
+        return seen;
+    }
+
+    public Date getTimestamp() {
+        return timestamp;
+    }
+
+    public boolean isInProgress() {
+        return inProgress;
+    }
+
+    /**
+     * Load the full message with all its references
+     *
+     * The message is loaded once and then kept by the summary.
+     */
+    public TalkClientMessage load(XoClientDatabase database) throws SQLException {
+        if(message == null) {
+            message = database.findClientMessageById(clientMessageId);
+        }
+        return message;
+    }
+
+}
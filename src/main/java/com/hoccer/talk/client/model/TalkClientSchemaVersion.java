@@ -0,0 +1,40 @@
+package com.hoccer.talk.client.model;
+
+import com.j256.ormlite.field.DatabaseField;
+import com.j256.ormlite.table.DatabaseTable;
+
+/**
+ * Applied version of one part of the local database schema
+ *
+ * Used for schema changes that can not be expressed by creating
+ * missing tables, such as indexes on existing tables.
+ */
+@DatabaseTable(tableName = "clientSchemaVersion")
+public class TalkClientSchemaVersion {
+
+    @DatabaseField(id = true, width = 128)
+    private String component;
+
+    @DatabaseField
+    private int version;
+
+    public TalkClientSchemaVersion() {
+    }
+
+    public TalkClientSchemaVersion(String component) {
+        this.component = component;
+    }
+
+    public String getComponent() {
+        return component;
+    }
+
+    public int getVersion() {
+        return version;
+    }
+
+    public void setVersion(int version) {
+        this.version = version;
+    }
+
+}
@@ -0,0 +1,43 @@
+package com.hoccer.talk.client.model;
+
+import com.j256.ormlite.field.DatabaseField;
+import com.j256.ormlite.table.DatabaseTable;
+
+import java.util.Date;
+
+/**
+ * Synchronization progress for one category of server state
+ *
+ * The watermark is the server time at which the last successful
+ * sync of the category was started. Later syncs only ask the
+ * server for changes made after it.
+ */
+@DatabaseTable(tableName = "clientSyncState")
+public class TalkClientSyncState {
+
+    @DatabaseField(id = true, width = 128)
+    private String category;
+
+    @DatabaseField(canBeNull = true)
+    private Date watermark;
+
+    public TalkClientSyncState() {
+    }
+
+    public TalkClientSyncState(String category) {
+        this.category = category;
+    }
+
+    public String getCategory() {
+        return category;
+    }
+
+    public Date getWatermark() {
+        return watermark;
+    }
+
+    public void setWatermark(Date watermark) {
+        this.watermark = watermark;
+    }
+
+}
@@ -20,7 +20,6 @@ import org.apache.log4j.Logger;
 import org.bouncycastle.util.encoders.Hex;
 
 import java.io.*;
-import java.sql.SQLException;
 
 @DatabaseTable(tableName = "clientUpload")
 public class TalkClientUpload extends XoTransfer implements IContentObject {
@@ -512,7 +511,7 @@ public class TalkClientUpload extends XoTransfer implements IContentObject {
             logRequestHeaders(uploadRequest, "PUT-upload response header ");
             HttpResponse uploadResponse = client.execute(uploadRequest);
             this.progress = uploadLength;
-            saveProgress(agent);
+            agent.saveUploadProgress(this);
             StatusLine uploadStatus = uploadResponse.getStatusLine();
             int uploadSc = uploadStatus.getStatusCode();
             LOG.trace("PUT-upload '" + uploadUrl + "' with status '" + uploadSc + "': " + uploadStatus.getReasonPhrase());
@@ -610,17 +609,13 @@ public class TalkClientUpload extends XoTransfer implements IContentObject {
     }
 
     private void saveProgress(XoTransferAgent agent) {
-        try {
-            agent.getDatabase().saveClientUpload(this);
-        } catch (SQLException e) {
-            LOG.error("sql error", e);
-        }
+        agent.saveUpload(this);
     }
 
     private int maybeSaveProgress(XoTransferAgent agent, int previousProgress) {
         int delta = progress - previousProgress;
         if(delta > PROGRESS_SAVE_MINIMUM) {
-            saveProgress(agent);
+            agent.saveUploadProgress(this);
             return progress;
         }
         return previousProgress;
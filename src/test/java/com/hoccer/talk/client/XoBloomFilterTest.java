@@ -0,0 +1,54 @@
+package com.hoccer.talk.client;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class XoBloomFilterTest {
+
+    @Test
+    public void addedValuesAreAlwaysFound() {
+        XoBloomFilter filter = new XoBloomFilter(1000);
+        for(int i = 0; i < 1000; i++) {
+            filter.add("message-" + i);
+        }
+        for(int i = 0; i < 1000; i++) {
+            assertTrue(filter.mightContain("message-" + i));
+        }
+    }
+
+    @Test
+    public void falsePositiveRateStaysLowAtCapacity() {
+        XoBloomFilter filter = new XoBloomFilter(1000);
+        for(int i = 0; i < 1000; i++) {
+            filter.add("message-" + i);
+        }
+        int falsePositives = 0;
+        for(int i = 0; i < 10000; i++) {
+            if(filter.mightContain("other-" + i)) {
+                falsePositives++;
+            }
+        }
+        // about 1% expected, allow some slack for the hash functions
+        assertTrue("false positives: " + falsePositives, falsePositives < 300);
+    }
+
+    @Test
+    public void emptyFilterContainsNothing() {
+        XoBloomFilter filter = new XoBloomFilter(0);
+        assertFalse(filter.mightContain("message-1"));
+        assertFalse(filter.mightContain(""));
+    }
+
+    @Test
+    public void overloadedOnceCapacityIsExceeded() {
+        XoBloomFilter filter = new XoBloomFilter(2);
+        filter.add("a");
+        filter.add("b");
+        assertFalse(filter.isOverloaded());
+        filter.add("c");
+        assertTrue(filter.isOverloaded());
+    }
+
+}
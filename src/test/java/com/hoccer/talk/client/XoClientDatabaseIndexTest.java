@@ -0,0 +1,282 @@
+package com.hoccer.talk.client;
+
+import com.hoccer.talk.client.model.TalkClientContact;
+import com.hoccer.talk.client.model.TalkClientMembership;
+import com.hoccer.talk.model.TalkDelivery;
+import com.j256.ormlite.dao.Dao;
+import com.j256.ormlite.dao.DaoManager;
+import com.j256.ormlite.jdbc.JdbcConnectionSource;
+import com.j256.ormlite.support.ConnectionSource;
+import com.j256.ormlite.table.DatabaseTableConfig;
+import com.j256.ormlite.table.TableInfo;
+import org.apache.log4j.Logger;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Benchmark of the hot lookups on a large generated database
+ *
+ * Fills a database without secondary indexes, as left by installs
+ * from before the index migration, times the hot lookups, migrates
+ * and then checks that each lookup uses its index and times it again.
+ */
+public class XoClientDatabaseIndexTest {
+
+    private static final Logger LOG = Logger.getLogger(XoClientDatabaseIndexTest.class);
+
+    private static final int CLIENT_COUNT = 800;
+
+    private static final int GROUP_COUNT = 200;
+
+    private static final int MEMBERS_PER_GROUP = 20;
+
+    private static final int MESSAGE_COUNT = 100000;
+
+    /** Every n-th message is outgoing and still waiting for delivery */
+    private static final int OUTBOX_INTERVAL = 100;
+
+    /** Every n-th message is unseen */
+    private static final int UNSEEN_INTERVAL = 50;
+
+    /** Number of times each lookup is run when timing it */
+    private static final int QUERY_RUNS = 10;
+
+    File mFile;
+
+    Connection mConnection;
+
+    ConnectionSource mConnectionSource;
+
+    /** Hot lookups by the index each of them should use */
+    Map<String, String> mLookups = new LinkedHashMap<String, String>();
+
+    @Before
+    public void setUp() throws Exception {
+        Class.forName("org.sqlite.JDBC");
+        mFile = File.createTempFile("xo-index-test", ".db");
+        String url = "jdbc:sqlite:" + mFile.getAbsolutePath();
+        mConnectionSource = new JdbcConnectionSource(url);
+        mConnection = DriverManager.getConnection(url);
+
+        String deliveryTable = DatabaseTableConfig.extractTableName(TalkDelivery.class);
+        String deliveryId = new TableInfo<TalkDelivery, Long>(mConnectionSource, null, TalkDelivery.class)
+                .getIdField().getColumnName();
+        String membershipTable = DatabaseTableConfig.extractTableName(TalkClientMembership.class);
+        mLookups.put("SELECT * FROM clientContact WHERE clientId = 'client-400' AND deleted = 0",
+                "clientContact_clientId_idx");
+        mLookups.put("SELECT * FROM clientContact WHERE groupId = 'group-100' AND deleted = 0",
+                "clientContact_groupId_idx");
+        mLookups.put("SELECT * FROM clientContact WHERE groupTag = 'tag-100' AND deleted = 0",
+                "clientContact_groupTag_idx");
+        mLookups.put("SELECT * FROM clientContact WHERE contactType = 'group' AND deleted = 0",
+                "clientContact_type_idx");
+        mLookups.put("SELECT * FROM clientMessage WHERE messageId = 'message-50000'",
+                "clientMessage_messageId_idx");
+        mLookups.put("SELECT * FROM clientMessage WHERE messageTag = 'tag-50000'",
+                "clientMessage_messageTag_idx");
+        mLookups.put("SELECT * FROM clientMessage WHERE conversationContact_id = 400"
+                + " ORDER BY timestamp DESC, clientMessageId DESC LIMIT 50",
+                "clientMessage_conversation_idx");
+        mLookups.put("SELECT conversationContact_id, clientMessageId FROM clientMessage WHERE seen = 0",
+                "clientMessage_seen_idx");
+        mLookups.put("SELECT * FROM " + deliveryTable + " WHERE " + TalkDelivery.FIELD_STATE + " = 'new'",
+                "delivery_state_idx");
+        mLookups.put("SELECT * FROM clientMessage WHERE outgoingDelivery_id IN"
+                + " (SELECT " + deliveryId + " FROM " + deliveryTable + " WHERE " + TalkDelivery.FIELD_STATE + " = 'new')"
+                + " AND inProgress = 0 ORDER BY timestamp, clientMessageId LIMIT 32",
+                "clientMessage_outgoingDelivery_id_idx");
+        mLookups.put("SELECT * FROM " + membershipTable + " WHERE groupContact_id = " + (CLIENT_COUNT + 100),
+                "clientMembership_group_idx");
+    }
+
+    @After
+    public void tearDown() throws SQLException, IOException {
+        mConnection.close();
+        mConnectionSource.close();
+        if(!mFile.delete()) {
+            mFile.deleteOnExit();
+        }
+    }
+
+    @Test
+    public void migratedIndexesServeHotLookups() throws Exception {
+        XoClientDatabase.createTables(mConnectionSource);
+        dropSecondaryIndexes();
+        fill();
+
+        Map<String, Long> unindexed = timeLookups();
+
+        XoClientDatabase database = new XoClientDatabase(createBackend());
+        database.initialize();
+
+        Map<String, Long> indexed = timeLookups();
+
+        for(Map.Entry<String, String> lookup: mLookups.entrySet()) {
+            String sql = lookup.getKey();
+            String index = lookup.getValue();
+            String plan = explain(sql);
+            LOG.info(index + ": " + QUERY_RUNS + " runs took " + unindexed.get(sql) / 1000000 + "ms without and "
+                    + indexed.get(sql) / 1000000 + "ms with index, plan " + plan.trim());
+            assertTrue(sql + " does not use " + index + ": " + plan, plan.contains(" " + index));
+        }
+    }
+
+    private IXoClientDatabaseBackend createBackend() {
+        return new IXoClientDatabaseBackend() {
+            @Override
+            public ConnectionSource getConnectionSource() {
+                return mConnectionSource;
+            }
+            @Override
+            public <D extends Dao<T, ?>, T> D getDao(Class<T> clazz) throws SQLException {
+                return DaoManager.createDao(mConnectionSource, clazz);
+            }
+        };
+    }
+
+    /**
+     * Drop all indexes but those backing primary keys and unique columns
+     */
+    private void dropSecondaryIndexes() throws SQLException {
+        List<String> indexes = new ArrayList<String>();
+        Statement statement = mConnection.createStatement();
+        try {
+            ResultSet result = statement.executeQuery("SELECT name FROM sqlite_master WHERE type = 'index' AND sql IS NOT NULL");
+            while(result.next()) {
+                indexes.add(result.getString(1));
+            }
+            result.close();
+            for(String index: indexes) {
+                statement.executeUpdate("DROP INDEX " + index);
+            }
+        } finally {
+            statement.close();
+        }
+    }
+
+    /**
+     * Generate contacts, group memberships, messages and their deliveries
+     */
+    private void fill() throws SQLException {
+        String deliveryTable = DatabaseTableConfig.extractTableName(TalkDelivery.class);
+        String membershipTable = DatabaseTableConfig.extractTableName(TalkClientMembership.class);
+        mConnection.setAutoCommit(false);
+
+        PreparedStatement contact = mConnection.prepareStatement(
+                "INSERT INTO clientContact (contactType, deleted, clientId, groupId, groupTag) VALUES (?, 0, ?, ?, ?)");
+        for(int i = 1; i <= CLIENT_COUNT + GROUP_COUNT; i++) {
+            boolean group = i > CLIENT_COUNT;
+            contact.setString(1, group ? TalkClientContact.TYPE_GROUP : TalkClientContact.TYPE_CLIENT);
+            contact.setString(2, group ? null : "client-" + i);
+            contact.setString(3, group ? "group-" + (i - CLIENT_COUNT) : null);
+            contact.setString(4, group ? "tag-" + (i - CLIENT_COUNT) : null);
+            contact.addBatch();
+        }
+        contact.executeBatch();
+        contact.close();
+
+        PreparedStatement membership = mConnection.prepareStatement(
+                "INSERT INTO " + membershipTable + " (groupContact_id, clientContact_id) VALUES (?, ?)");
+        for(int group = CLIENT_COUNT + 1; group <= CLIENT_COUNT + GROUP_COUNT; group++) {
+            for(int member = 0; member < MEMBERS_PER_GROUP; member++) {
+                membership.setInt(1, group);
+                membership.setInt(2, (group * 7 + member) % CLIENT_COUNT + 1);
+                membership.addBatch();
+            }
+        }
+        membership.executeBatch();
+        membership.close();
+
+        PreparedStatement delivery = mConnection.prepareStatement(
+                "INSERT INTO " + deliveryTable + " (" + TalkDelivery.FIELD_STATE + ") VALUES (?)");
+        PreparedStatement message = mConnection.prepareStatement(
+                "INSERT INTO clientMessage (messageId, messageTag, conversationContact_id, senderContact_id,"
+                + " outgoingDelivery_id, text, deleted, seen, timestamp, inProgress) VALUES (?, ?, ?, ?, ?, ?, 0, ?, ?, 0)");
+        long start = System.currentTimeMillis() - MESSAGE_COUNT * 1000L;
+        for(int i = 1; i <= MESSAGE_COUNT; i++) {
+            delivery.setString(1, i % OUTBOX_INTERVAL == 0 ? TalkDelivery.STATE_NEW : TalkDelivery.STATE_CONFIRMED);
+            delivery.addBatch();
+            int conversation = i % (CLIENT_COUNT + GROUP_COUNT) + 1;
+            message.setString(1, "message-" + i);
+            message.setString(2, "tag-" + i);
+            message.setInt(3, conversation);
+            message.setInt(4, conversation > CLIENT_COUNT ? i % CLIENT_COUNT + 1 : conversation);
+            message.setInt(5, i);
+            message.setString(6, "text of message " + i);
+            message.setBoolean(7, i % UNSEEN_INTERVAL != 0);
+            message.setLong(8, start + i * 1000L);
+            message.addBatch();
+            if(i % 10000 == 0) {
+                delivery.executeBatch();
+                message.executeBatch();
+            }
+        }
+        delivery.executeBatch();
+        message.executeBatch();
+        delivery.close();
+        message.close();
+
+        mConnection.commit();
+        mConnection.setAutoCommit(true);
+    }
+
+    /**
+     * @return nanoseconds taken by QUERY_RUNS runs of each lookup
+     */
+    private Map<String, Long> timeLookups() throws SQLException {
+        Map<String, Long> times = new LinkedHashMap<String, Long>();
+        Statement statement = mConnection.createStatement();
+        try {
+            for(String sql: mLookups.keySet()) {
+                long start = System.nanoTime();
+                for(int i = 0; i < QUERY_RUNS; i++) {
+                    ResultSet result = statement.executeQuery(sql);
+                    while(result.next()) {
+                        result.getObject(1);
+                    }
+                    result.close();
+                }
+                times.put(sql, System.nanoTime() - start);
+            }
+        } finally {
+            statement.close();
+        }
+        return times;
+    }
+
+    /**
+     * @return the query plan of the given statement, one step per line
+     */
+    private String explain(String sql) throws SQLException {
+        StringBuilder plan = new StringBuilder();
+        Statement statement = mConnection.createStatement();
+        try {
+            ResultSet result = statement.executeQuery("EXPLAIN QUERY PLAN " + sql);
+            int detail = result.getMetaData().getColumnCount();
+            while(result.next()) {
+                plan.append(result.getString(detail)).append('\n');
+            }
+            result.close();
+        } finally {
+            statement.close();
+        }
+        return plan.toString();
+    }
+
+}
@@ -0,0 +1,212 @@
+package com.hoccer.talk.client;
+
+import com.j256.ormlite.dao.Dao;
+import com.j256.ormlite.db.DatabaseType;
+import com.j256.ormlite.support.ConnectionSource;
+import com.j256.ormlite.support.DatabaseConnection;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+public class XoClientDatabaseTest {
+
+    XoClientDatabase mDatabase;
+
+    /** Callbacks of units of work in the order they happened */
+    List<String> mEvents = new ArrayList<String>();
+
+    @Before
+    public void setUp() {
+        mDatabase = new XoClientDatabase(createBackend());
+    }
+
+    @Test
+    public void groupCommitCallsBackInSubmissionOrder() {
+        mDatabase.submitUnit(new RecordingUnit("a", false));
+        mDatabase.submitUnit(new RecordingUnit("b", false));
+        mDatabase.submitUnit(new RecordingUnit("c", false));
+        mDatabase.awaitUnits();
+
+        assertEquals(Arrays.asList("perform a", "perform b", "perform c",
+                "commit a", "commit b", "commit c"), mEvents);
+    }
+
+    @Test
+    public void failingUnitDoesNotTakeOthersDown() {
+        List<XoClientDatabase.UnitOfWork> units = new ArrayList<XoClientDatabase.UnitOfWork>();
+        units.add(new RecordingUnit("a", false));
+        units.add(new RecordingUnit("b", true));
+        units.add(new RecordingUnit("c", false));
+        mDatabase.submitUnits(units);
+        mDatabase.awaitUnits();
+
+        assertEquals(Arrays.asList("perform a", "perform b",
+                "perform a", "commit a", "perform b", "failure b", "perform c", "commit c"), mEvents);
+    }
+
+    @Test
+    public void afterCommitRunsRightAwayOutsideOfTransactions() {
+        mDatabase.afterCommit(new RecordingAction("action"));
+
+        assertEquals(Arrays.asList("action"), mEvents);
+    }
+
+    @Test
+    public void afterCommitRunsOnceTheOutermostTransactionCommitted() throws SQLException {
+        mDatabase.runInTransaction(new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                mDatabase.runInTransaction(new Callable<Void>() {
+                    @Override
+                    public Void call() {
+                        mDatabase.afterCommit(new RecordingAction("inner action"));
+                        mEvents.add("inner");
+                        return null;
+                    }
+                });
+                mDatabase.afterCommit(new RecordingAction("outer action"));
+                mEvents.add("outer");
+                return null;
+            }
+        });
+
+        assertEquals(Arrays.asList("inner", "outer", "inner action", "outer action"), mEvents);
+    }
+
+    @Test
+    public void afterCommitIsDroppedOnRollback() {
+        try {
+            mDatabase.runInTransaction(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    mDatabase.afterCommit(new RecordingAction("action"));
+                    throw new SQLException("rolling back");
+                }
+            });
+        } catch (SQLException e) {
+            mEvents.add("rolled back");
+        }
+        mDatabase.afterCommit(new RecordingAction("later action"));
+
+        assertEquals(Arrays.asList("rolled back", "later action"), mEvents);
+    }
+
+    /**
+     * Action recording that it ran, checking that the database monitor is not held
+     */
+    private class RecordingAction implements Runnable {
+        String mName;
+
+        RecordingAction(String name) {
+            mName = name;
+        }
+
+        @Override
+        public void run() {
+            assertFalse(Thread.holdsLock(mDatabase));
+            mEvents.add(mName);
+        }
+    }
+
+    /**
+     * Unit recording its callbacks, optionally failing every time it is performed
+     */
+    private class RecordingUnit extends XoClientDatabase.UnitOfWork {
+        String mName;
+        boolean mFail;
+
+        RecordingUnit(String name, boolean fail) {
+            mName = name;
+            mFail = fail;
+        }
+
+        @Override
+        public void perform() throws SQLException {
+            mEvents.add("perform " + mName);
+            if(mFail) {
+                throw new SQLException("failing " + mName);
+            }
+        }
+
+        @Override
+        public void onCommit() {
+            mEvents.add("commit " + mName);
+        }
+
+        @Override
+        public void onFailure(SQLException e) {
+            mEvents.add("failure " + mName);
+        }
+    }
+
+    /**
+     * Backend whose connection accepts transactions but stores nothing
+     */
+    private static IXoClientDatabaseBackend createBackend() {
+        final DatabaseConnection connection = createStub(DatabaseConnection.class);
+        final DatabaseType databaseType = createStub(DatabaseType.class);
+        final ConnectionSource connectionSource = (ConnectionSource) Proxy.newProxyInstance(
+                ConnectionSource.class.getClassLoader(), new Class<?>[] { ConnectionSource.class },
+                new InvocationHandler() {
+                    @Override
+                    public Object invoke(Object proxy, Method method, Object[] args) {
+                        String name = method.getName();
+                        if(name.equals("getReadWriteConnection") || name.equals("getReadOnlyConnection")
+                                || name.equals("getSpecialConnection")) {
+                            return connection;
+                        }
+                        if(name.equals("getDatabaseType")) {
+                            return databaseType;
+                        }
+                        return defaultValue(method.getReturnType());
+                    }
+                });
+        return new IXoClientDatabaseBackend() {
+            @Override
+            public ConnectionSource getConnectionSource() {
+                return connectionSource;
+            }
+
+            @Override
+            public <D extends Dao<T, ?>, T> D getDao(Class<T> clazz) throws SQLException {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T createStub(Class<T> type) {
+        return (T) Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] { type },
+                new InvocationHandler() {
+                    @Override
+                    public Object invoke(Object proxy, Method method, Object[] args) {
+                        return defaultValue(method.getReturnType());
+                    }
+                });
+    }
+
+    private static Object defaultValue(Class<?> type) {
+        if(type == boolean.class) {
+            return false;
+        }
+        if(type == int.class) {
+            return 0;
+        }
+        if(type == long.class) {
+            return 0L;
+        }
+        return null;
+    }
+
+}
@@ -0,0 +1,201 @@
+package com.hoccer.talk.client;
+
+import com.hoccer.talk.client.model.TalkClientDeliveryConfirmation;
+import com.hoccer.talk.rpc.ITalkRpcServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class XoConfirmationQueueTest {
+
+    ManualExecutor mExecutor;
+
+    XoRpcPipeline mPipeline;
+
+    XoConfirmationQueue mQueue;
+
+    boolean mLoggedIn = true;
+
+    /** Pending count of the queue at the time of each save */
+    List<Integer> mPendingAtSave = new ArrayList<Integer>();
+
+    /** Operation keys of deleted confirmations */
+    List<String> mDeleted = new ArrayList<String>();
+
+    /** RPC calls made by the queue, failing ones included */
+    List<String> mCalls = Collections.synchronizedList(new ArrayList<String>());
+
+    /** Number of RPC calls still to fail */
+    int mFailures = 0;
+
+    @Before
+    public void setUp() {
+        mExecutor = new ManualExecutor();
+        mPipeline = new XoRpcPipeline(createServerRpc(), 4, null);
+        XoClientDatabase database = new XoClientDatabase(null) {
+            @Override
+            public void saveDeliveryConfirmation(TalkClientDeliveryConfirmation confirmation) throws SQLException {
+                mPendingAtSave.add(mQueue.getPendingCount());
+            }
+            @Override
+            public void deleteDeliveryConfirmations(List<TalkClientDeliveryConfirmation> confirmations) throws SQLException {
+                for(TalkClientDeliveryConfirmation confirmation: confirmations) {
+                    mDeleted.add(confirmation.getOperationKey());
+                }
+            }
+        };
+        mQueue = new XoConfirmationQueue(null, database, mExecutor) {
+            @Override
+            boolean isLoggedIn() {
+                return mLoggedIn;
+            }
+            @Override
+            XoRpcPipeline getServerRpcPipeline() {
+                return mPipeline;
+            }
+        };
+    }
+
+    @After
+    public void tearDown() {
+        mExecutor.shutdownNow();
+    }
+
+    @Test
+    public void confirmationIsSavedBeforeItIsQueued() {
+        mQueue.confirm("message-1");
+
+        assertEquals(1, mPendingAtSave.size());
+        assertEquals(Integer.valueOf(0), mPendingAtSave.get(0));
+        assertEquals(1, mQueue.getPendingCount());
+    }
+
+    @Test
+    public void repeatedConfirmationIsQueuedOnce() {
+        mQueue.confirm("message-1");
+        mQueue.confirm("message-1");
+
+        assertEquals(1, mPendingAtSave.size());
+        assertEquals(1, mQueue.getPendingCount());
+    }
+
+    @Test
+    public void differentOperationsOnOneMessageAreQueuedSeparately() {
+        mQueue.confirm("message-1");
+        mQueue.abort("message-1", "receiver-1");
+        mQueue.acknowledge("message-1", "receiver-1");
+
+        assertEquals(3, mPendingAtSave.size());
+        assertEquals(3, mQueue.getPendingCount());
+    }
+
+    @Test
+    public void flushSendsConfirmationsAndDeletesThem() {
+        mQueue.confirm("message-1");
+        mQueue.abort("message-2", "receiver-2");
+        mQueue.acknowledge("message-3", "receiver-3");
+        mQueue.flush();
+
+        List<String> calls = new ArrayList<String>(mCalls);
+        Collections.sort(calls);
+        assertEquals(Arrays.asList("deliveryAbort message-2 receiver-2",
+                "deliveryAcknowledge message-3 receiver-3",
+                "deliveryConfirm message-1"), calls);
+        assertEquals(3, mDeleted.size());
+        assertEquals(0, mQueue.getPendingCount());
+    }
+
+    @Test
+    public void flushKeepsConfirmationsWhileLoggedOut() {
+        mLoggedIn = false;
+        mQueue.confirm("message-1");
+        mQueue.flush();
+
+        assertTrue(mCalls.isEmpty());
+        assertTrue(mDeleted.isEmpty());
+        assertEquals(1, mQueue.getPendingCount());
+    }
+
+    @Test
+    public void failedConfirmationIsKeptAndRetried() {
+        mFailures = 1;
+        mQueue.confirm("message-1");
+        mQueue.flush();
+
+        assertEquals(1, mCalls.size());
+        assertTrue(mDeleted.isEmpty());
+        assertEquals(1, mQueue.getPendingCount());
+        assertEquals(Long.valueOf(XoClientConfiguration.CONFIRMATION_RETRY_DELAY), mExecutor.lastDelay());
+
+        mQueue.flush();
+
+        assertEquals(2, mCalls.size());
+        assertEquals(1, mDeleted.size());
+        assertEquals(0, mQueue.getPendingCount());
+    }
+
+    /**
+     * Server RPC recording delivery calls, failing the first mFailures of them
+     */
+    private ITalkRpcServer createServerRpc() {
+        return (ITalkRpcServer) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class<?>[] { ITalkRpcServer.class }, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                StringBuilder call = new StringBuilder(method.getName());
+                if(args != null) {
+                    for(Object arg: args) {
+                        call.append(' ').append(arg);
+                    }
+                }
+                mCalls.add(call.toString());
+                synchronized (XoConfirmationQueueTest.this) {
+                    if(mFailures > 0) {
+                        mFailures--;
+                        throw new RuntimeException("failing " + call);
+                    }
+                }
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Executor recording the delays of scheduled flushes without running them
+     *
+     * Tests call flush() themselves, so flushes never run concurrently.
+     */
+    private static class ManualExecutor extends ScheduledThreadPoolExecutor {
+        List<Long> mDelays = new ArrayList<Long>();
+
+        ManualExecutor() {
+            super(1);
+        }
+
+        @Override
+        public synchronized ScheduledFuture<?> schedule(Runnable command, long delay, TimeUnit unit) {
+            mDelays.add(unit.toMillis(delay));
+            return super.schedule(command, 1, TimeUnit.DAYS);
+        }
+
+        synchronized Long lastDelay() {
+            return mDelays.isEmpty() ? null : mDelays.get(mDelays.size() - 1);
+        }
+    }
+
+}
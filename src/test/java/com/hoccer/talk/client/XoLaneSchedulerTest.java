@@ -0,0 +1,90 @@
+package com.hoccer.talk.client;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class XoLaneSchedulerTest {
+
+    @Test
+    public void overflowingLaneKeepsOrderAndRunsOneTaskAtATime() throws InterruptedException {
+        XoLaneScheduler scheduler = new XoLaneScheduler((Thread.UncaughtExceptionHandler) null);
+        final CountDownLatch blocker = new CountDownLatch(1);
+        final int taskCount = XoClientConfiguration.LANE_QUEUE_CAPACITY * 2;
+        final CountDownLatch done = new CountDownLatch(taskCount);
+        final List<Integer> order = new ArrayList<Integer>();
+        final AtomicInteger running = new AtomicInteger();
+        final AtomicInteger maxRunning = new AtomicInteger();
+
+        scheduler.execute(XoLaneScheduler.Lane.DELIVERY, new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    blocker.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        for(int i = 0; i < taskCount; i++) {
+            final int number = i;
+            scheduler.execute(XoLaneScheduler.Lane.DELIVERY, new Runnable() {
+                @Override
+                public void run() {
+                    int now = running.incrementAndGet();
+                    if(now > maxRunning.get()) {
+                        maxRunning.set(now);
+                    }
+                    synchronized (order) {
+                        order.add(number);
+                    }
+                    running.decrementAndGet();
+                    done.countDown();
+                }
+            });
+        }
+        assertTrue(scheduler.getOverflowCount(XoLaneScheduler.Lane.DELIVERY) > 0);
+        blocker.countDown();
+
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        assertEquals(1, maxRunning.get());
+        for(int i = 0; i < taskCount; i++) {
+            assertEquals(Integer.valueOf(i), order.get(i));
+        }
+    }
+
+    @Test
+    public void lanesRunIndependently() throws InterruptedException {
+        XoLaneScheduler scheduler = new XoLaneScheduler((Thread.UncaughtExceptionHandler) null);
+        final CountDownLatch blocker = new CountDownLatch(1);
+        final CountDownLatch interactive = new CountDownLatch(1);
+
+        scheduler.execute(XoLaneScheduler.Lane.SYNC, new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    blocker.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        scheduler.execute(XoLaneScheduler.Lane.INTERACTIVE, new Runnable() {
+            @Override
+            public void run() {
+                interactive.countDown();
+            }
+        });
+
+        assertTrue(interactive.await(10, TimeUnit.SECONDS));
+        blocker.countDown();
+    }
+
+}